@@ -0,0 +1,126 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.model.graph.Graph;
+import de.unibi.agbi.biodwh2.core.model.graph.Node;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures query execution through the GraphQL data fetchers on a synthetic workspace.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    private static final int LOOKUP_QUERIES = 1024;
+
+    @Param({"4"})
+    public int labels;
+    @Param({"1000", "10000"})
+    public int nodesPerLabel;
+    @Param({"2", "8"})
+    public int fanOut;
+    @Param({"0", "64"})
+    public int modelCacheSize;
+
+    private Graph graph;
+    private GraphQL graphQL;
+    private String labelScanQuery;
+    private String[] idLookupQueries;
+    private String[] traversalQueries;
+    private int nextLookup;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final SyntheticWorkspace workspace = SyntheticWorkspace.getOrCreate(labels, nodesPerLabel, fanOut);
+        graph = workspace.openGraph();
+        graphQL = workspace.buildGraphQL(graph, modelCacheSize);
+        final String label = SyntheticWorkspace.getNodeLabel(0);
+        labelScanQuery = "{ " + label + " { _id name value score } }";
+        final long[] ids = new long[LOOKUP_QUERIES];
+        int count = 0;
+        for (final Node node : graph.findNodes(label)) {
+            ids[count++] = node.getId();
+            if (count == ids.length)
+                break;
+        }
+        idLookupQueries = new String[LOOKUP_QUERIES];
+        for (int i = 0; i < LOOKUP_QUERIES; i++)
+            idLookupQueries[i] = "{ _node(_id: " + ids[i % count] + ") { _id _label } }";
+        traversalQueries = new String[3];
+        for (int hops = 1; hops <= traversalQueries.length; hops++)
+            traversalQueries[hops - 1] = "{ " + label + "(_id: " + ids[0] + ") { _id " +
+                                         SyntheticWorkspace.EDGE_LABEL + " { weight _to { _id " + buildHops(hops - 1) +
+                                         "} } } }";
+    }
+
+    private static String buildHops(final int hops) {
+        if (hops == 0)
+            return "";
+        return "_edges { _to { _id " + buildHops(hops - 1) + "} } ";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graph.close();
+    }
+
+    @Benchmark
+    public ExecutionResult labelScan() {
+        return execute(labelScanQuery);
+    }
+
+    @Benchmark
+    public ExecutionResult idLookup() {
+        nextLookup = (nextLookup + 1) % LOOKUP_QUERIES;
+        return execute(idLookupQueries[nextLookup]);
+    }
+
+    @Benchmark
+    public ExecutionResult traversalOneHop() {
+        return execute(traversalQueries[0]);
+    }
+
+    @Benchmark
+    public ExecutionResult traversalTwoHops() {
+        return execute(traversalQueries[1]);
+    }
+
+    @Benchmark
+    public ExecutionResult traversalThreeHops() {
+        return execute(traversalQueries[2]);
+    }
+
+    @Benchmark
+    public long labelScanSerialized() throws IOException {
+        final ServerMetrics.CountingOutputStream outputStream = new ServerMetrics.CountingOutputStream(
+                new DiscardingOutputStream());
+        JsonResponseWriter.write(outputStream, execute(labelScanQuery));
+        return outputStream.getCount();
+    }
+
+    private ExecutionResult execute(final String query) {
+        final ExecutionResult result = graphQL.execute(query);
+        if (!result.getErrors().isEmpty())
+            throw new IllegalStateException("Benchmark query failed: " + result.getErrors());
+        return result;
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.lang3.StringUtils;
+import picocli.CommandLine;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays requests captured using the server's --capture-file option against an embedded server or a running server
+ * URL. Requests are sent open-loop at a fixed rate by a fixed number of connections, cycling through the capture in
+ * order. Latencies are measured from the time each request was scheduled to be sent instead of the time it was
+ * actually sent, so requests delayed behind slow responses are accounted for instead of being coordinated away.
+ */
+@CommandLine.Command(name = "QueryReplay", mixinStandardHelpOptions = true)
+public final class QueryReplay implements Callable<Integer> {
+    private static final String ALL_OPERATIONS = "(all)";
+    private static final String ANONYMOUS_OPERATION = "(anonymous)";
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    @CommandLine.Option(names = {"-c", "--capture"}, required = true, paramLabel = "<path>",
+            description = "Capture file written by the server's --capture-file option")
+    private String captureFile;
+    @CommandLine.Option(names = {"-s", "--start"}, paramLabel = "<workspacePath>",
+            description = "Workspace to start an embedded server for")
+    private String workspacePath;
+    @CommandLine.Option(names = "--server-args", paramLabel = "<args>",
+            description = "Additional command line arguments of the embedded server")
+    private String serverArgs;
+    @CommandLine.Option(names = "--url", paramLabel = "<url>",
+            description = "Endpoint of a running server to replay against instead of an embedded server")
+    private String url;
+    @CommandLine.Option(names = "--rate", defaultValue = "50", paramLabel = "<requests>",
+            description = "Requests sent per second (default 50)")
+    private double rate;
+    @CommandLine.Option(names = "--concurrency", defaultValue = "16", paramLabel = "<connections>",
+            description = "Number of concurrent connections (default 16)")
+    private int concurrency;
+    @CommandLine.Option(names = "--warmup", defaultValue = "10", paramLabel = "<seconds>",
+            description = "Duration of the unrecorded warmup in seconds (default 10)")
+    private int warmupSeconds;
+    @CommandLine.Option(names = "--duration", defaultValue = "60", paramLabel = "<seconds>",
+            description = "Duration of the recorded replay in seconds (default 60)")
+    private int durationSeconds;
+    @CommandLine.Option(names = "--histogram-output", paramLabel = "<directory>",
+            description = "Directory to write the percentile distribution of each operation to")
+    private String histogramOutput;
+
+    private static final class Request {
+        final String operationName;
+        final byte[] body;
+
+        Request(final String operationName, final byte[] body) {
+            this.operationName = operationName;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Latencies and errors of one operation. Each worker records into its own instances, which are merged once the
+     * replay finished.
+     */
+    private static final class OperationStats {
+        final Histogram latency = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram serviceTime = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        long errors;
+
+        void record(final long latencyMicros, final long serviceTimeMicros, final boolean failed) {
+            latency.recordValue(Math.min(latencyMicros, HIGHEST_TRACKABLE_MICROS));
+            serviceTime.recordValue(Math.min(serviceTimeMicros, HIGHEST_TRACKABLE_MICROS));
+            if (failed)
+                errors++;
+        }
+
+        void add(final OperationStats other) {
+            latency.add(other.latency);
+            serviceTime.add(other.serviceTime);
+            errors += other.errors;
+        }
+    }
+
+    public static void main(final String... args) {
+        final int exitCode = new CommandLine(new QueryReplay()).execute(args);
+        // Only exit explicitly on failure, so the tool can also run inside the Maven JVM
+        if (exitCode != 0)
+            System.exit(exitCode);
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        if ((workspacePath == null) == (url == null))
+            throw new CommandLine.ParameterException(new CommandLine(this),
+                                                     "Either a workspace or a server URL is required");
+        final List<Request> requests = loadRequests(Paths.get(captureFile));
+        if (requests.isEmpty()) {
+            System.err.println("The capture file '" + captureFile + "' contains no requests");
+            return 1;
+        }
+        GraphQLServer server = null;
+        try {
+            final URL endpoint;
+            if (workspacePath != null) {
+                final List<String> args = new ArrayList<>(Arrays.asList("--start", workspacePath, "--port", "0"));
+                if (StringUtils.isNotBlank(serverArgs))
+                    args.addAll(Arrays.asList(StringUtils.split(serverArgs)));
+                server = GraphQLServer.startEmbedded(args.toArray(new String[0]));
+                endpoint = new URL("http://localhost:" + server.getPort() + "/");
+            } else
+                endpoint = new URL(url);
+            final Map<String, OperationStats> stats = replay(endpoint, requests);
+            report(stats);
+            if (histogramOutput != null)
+                writeHistograms(Paths.get(histogramOutput), stats);
+        } finally {
+            if (server != null)
+                server.stop();
+        }
+        return 0;
+    }
+
+    private static List<Request> loadRequests(final Path filePath) throws IOException {
+        final List<Request> requests = new ArrayList<>();
+        try (final BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (StringUtils.isBlank(line))
+                    continue;
+                final JsonNode entry = JsonResponseWriter.MAPPER.readTree(line);
+                final Map<String, Object> body = new LinkedHashMap<>();
+                body.put("query", entry.path("query").asText());
+                if (entry.hasNonNull("operationName"))
+                    body.put("operationName", entry.get("operationName").asText());
+                if (entry.hasNonNull("variables"))
+                    body.put("variables", entry.get("variables"));
+                final String operationName = entry.hasNonNull("operationName") ? entry.get("operationName").asText() :
+                                             ANONYMOUS_OPERATION;
+                requests.add(new Request(operationName, JsonResponseWriter.MAPPER.writeValueAsBytes(body)));
+            }
+        }
+        return requests;
+    }
+
+    private Map<String, OperationStats> replay(final URL endpoint,
+                                               final List<Request> requests) throws InterruptedException {
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        final long recordStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = recordStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        final AtomicLong sequence = new AtomicLong();
+        final List<Map<String, OperationStats>> workerStats = new ArrayList<>();
+        final Thread[] workers = new Thread[concurrency];
+        System.out.println("Replaying " + requests.size() + " captured requests against " + endpoint + " at " + rate +
+                           " requests/s using " + concurrency + " connections...");
+        for (int i = 0; i < workers.length; i++) {
+            final Map<String, OperationStats> stats = new HashMap<>();
+            workerStats.add(stats);
+            workers[i] = new Thread(() -> {
+                while (true) {
+                    final long index = sequence.getAndIncrement();
+                    final long intended = start + index * intervalNanos;
+                    if (intended >= end)
+                        break;
+                    long now;
+                    while ((now = System.nanoTime()) < intended)
+                        LockSupport.parkNanos(intended - now);
+                    final Request request = requests.get((int) (index % requests.size()));
+                    final boolean failed = !send(endpoint, request.body);
+                    final long completed = System.nanoTime();
+                    if (intended < recordStart)
+                        continue;
+                    final long latencyMicros = TimeUnit.NANOSECONDS.toMicros(completed - intended);
+                    final long serviceTimeMicros = TimeUnit.NANOSECONDS.toMicros(completed - now);
+                    stats.computeIfAbsent(request.operationName, key -> new OperationStats()).record(latencyMicros,
+                                                                                                     serviceTimeMicros,
+                                                                                                     failed);
+                    stats.computeIfAbsent(ALL_OPERATIONS, key -> new OperationStats()).record(latencyMicros,
+                                                                                              serviceTimeMicros,
+                                                                                              failed);
+                }
+            }, "replay-" + i);
+            workers[i].start();
+        }
+        for (final Thread worker : workers)
+            worker.join();
+        final Map<String, OperationStats> result = new TreeMap<>();
+        for (final Map<String, OperationStats> stats : workerStats)
+            for (final Map.Entry<String, OperationStats> entry : stats.entrySet())
+                result.computeIfAbsent(entry.getKey(), key -> new OperationStats()).add(entry.getValue());
+        return result;
+    }
+
+    /**
+     * Sends a request and reads the complete response, so the connection can be reused. Returns false if the request
+     * failed or the response contains errors.
+     */
+    private static boolean send(final URL endpoint, final byte[] body) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (final OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+            final int status = connection.getResponseCode();
+            final InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (inputStream == null)
+                return false;
+            try (final InputStream stream = inputStream) {
+                final JsonNode response = JsonResponseWriter.MAPPER.readTree(stream);
+                return status == HttpURLConnection.HTTP_OK && response != null && !response.has("errors");
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void report(final Map<String, OperationStats> stats) {
+        System.out.printf("%-32s %10s %8s %10s %10s %10s %10s %10s %12s%n", "Operation", "Requests", "Errors",
+                          "Req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99 ms");
+        for (final Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+            final OperationStats operation = entry.getValue();
+            final long count = operation.latency.getTotalCount();
+            System.out.printf("%-32s %10d %7.2f%% %10.1f %10.2f %10.2f %10.2f %10.2f %12.2f%n",
+                              StringUtils.abbreviate(entry.getKey(), 32), count,
+                              count > 0 ? operation.errors * 100.0 / count : 0, (double) count / durationSeconds,
+                              toMillis(operation.latency.getValueAtPercentile(50)),
+                              toMillis(operation.latency.getValueAtPercentile(99)),
+                              toMillis(operation.latency.getValueAtPercentile(99.9)),
+                              toMillis(operation.latency.getMaxValue()),
+                              toMillis(operation.serviceTime.getValueAtPercentile(99)));
+        }
+        System.out.println("Latencies are measured from the scheduled send time, svc p99 from the actual send time.");
+    }
+
+    private static double toMillis(final long micros) {
+        return micros / 1000.0;
+    }
+
+    private static void writeHistograms(final Path directory,
+                                        final Map<String, OperationStats> stats) throws IOException {
+        Files.createDirectories(directory);
+        for (final Map.Entry<String, OperationStats> entry : stats.entrySet()) {
+            final String fileName = entry.getKey().replaceAll("[^A-Za-z0-9_-]", "_") + ".hgrm";
+            try (final PrintStream stream = new PrintStream(Files.newOutputStream(directory.resolve(fileName)), false,
+                                                            StandardCharsets.UTF_8.name())) {
+                entry.getValue().latency.outputPercentileDistribution(stream, 1000.0);
+            }
+        }
+    }
+}
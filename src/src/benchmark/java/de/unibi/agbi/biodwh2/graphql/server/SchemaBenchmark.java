@@ -0,0 +1,57 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.model.graph.Graph;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphSchema;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the schema generation which runs on server start whenever the workspace graph changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SchemaBenchmark {
+    @Param({"4"})
+    public int labels;
+    @Param({"1000", "10000"})
+    public int nodesPerLabel;
+    @Param({"2", "8"})
+    public int fanOut;
+
+    private Graph graph;
+    private GraphSchema schema;
+    private Path schemaFilePath;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        graph = SyntheticWorkspace.getOrCreate(labels, nodesPerLabel, fanOut).openGraph();
+        schema = new GraphSchema(graph);
+        schemaFilePath = Files.createTempFile("biodwh2-graphql-benchmark", "." + GraphQLSchemaWriter.EXTENSION);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        graph.close();
+        Files.deleteIfExists(schemaFilePath);
+    }
+
+    @Benchmark
+    public GraphSchema buildGraphSchema() {
+        return new GraphSchema(graph);
+    }
+
+    @Benchmark
+    public long saveSchema() throws IOException {
+        new GraphQLSchemaWriter(schema).save(schemaFilePath.toString());
+        return Files.size(schemaFilePath);
+    }
+}
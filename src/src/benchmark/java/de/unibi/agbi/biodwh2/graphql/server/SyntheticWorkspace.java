@@ -0,0 +1,111 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.model.graph.Graph;
+import de.unibi.agbi.biodwh2.core.model.graph.Node;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphSchema;
+import graphql.GraphQL;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates deterministic workspaces with a configurable number of node labels, nodes per label and outgoing edges
+ * per node. Generated workspaces are kept in the temporary directory and reused by later benchmark runs.
+ */
+final class SyntheticWorkspace {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SyntheticWorkspace.class);
+    static final String EDGE_LABEL = "LINKS";
+    private static final String DATABASE_FILE_NAME = "mapped." + Graph.EXTENSION;
+    private static final String SCHEMA_FILE_NAME = "mapped." + GraphQLSchemaWriter.EXTENSION;
+    private static final String COMPLETE_FILE_NAME = "complete";
+    private static final long SEED = 42;
+
+    private final Path path;
+
+    private SyntheticWorkspace(final Path path) {
+        this.path = path;
+    }
+
+    static SyntheticWorkspace getOrCreate(final int labels, final int nodesPerLabel,
+                                          final int fanOut) throws IOException {
+        final Path path = Paths.get(System.getProperty("java.io.tmpdir"), "biodwh2-graphql-benchmark",
+                                    labels + "-" + nodesPerLabel + "-" + fanOut);
+        final SyntheticWorkspace workspace = new SyntheticWorkspace(path);
+        if (Files.notExists(path.resolve(COMPLETE_FILE_NAME)))
+            workspace.generate(labels, nodesPerLabel, fanOut);
+        return workspace;
+    }
+
+    static String getNodeLabel(final int index) {
+        return "Label" + index;
+    }
+
+    private void generate(final int labels, final int nodesPerLabel, final int fanOut) throws IOException {
+        if (LOGGER.isInfoEnabled())
+            LOGGER.info("Generating synthetic workspace '" + path + "'...");
+        deleteRecursively(path);
+        Files.createDirectories(path.resolve("sources"));
+        final Random random = new Random(SEED);
+        final Graph graph = new Graph(getDatabaseFilePath());
+        final List<Node> nodes = new ArrayList<>(labels * nodesPerLabel);
+        for (int label = 0; label < labels; label++)
+            for (int i = 0; i < nodesPerLabel; i++)
+                nodes.add(graph.addNode(getNodeLabel(label), "name", "node" + label + "-" + i, "value", i, "score",
+                                        random.nextDouble()));
+        for (final Node node : nodes)
+            for (int i = 0; i < fanOut; i++)
+                graph.addEdge(node, nodes.get(random.nextInt(nodes.size())), EDGE_LABEL, "weight", random.nextInt(100));
+        graph.close();
+        Files.createFile(path.resolve(COMPLETE_FILE_NAME));
+    }
+
+    private static void deleteRecursively(final Path path) throws IOException {
+        if (Files.notExists(path))
+            return;
+        try (final Stream<Path> paths = Files.walk(path)) {
+            for (final Path child : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(child);
+        }
+    }
+
+    Path getDatabaseFilePath() {
+        return path.resolve("sources").resolve(DATABASE_FILE_NAME);
+    }
+
+    Graph openGraph() {
+        return new Graph(getDatabaseFilePath(), true, true);
+    }
+
+    /**
+     * Writes the schema of the graph and builds a GraphQL instance wired the same way as the server.
+     */
+    GraphQL buildGraphQL(final Graph graph, final int modelCacheSize) throws IOException {
+        final Path schemaFilePath = path.resolve("graphql").resolve(SCHEMA_FILE_NAME);
+        Files.createDirectories(schemaFilePath.getParent());
+        new GraphQLSchemaWriter(new GraphSchema(graph)).save(schemaFilePath.toString());
+        final TypeDefinitionRegistry typeRegistry = new SchemaParser().parse(schemaFilePath.toFile());
+        final ServerMetrics metrics = new ServerMetrics();
+        final AdjacencyIndex adjacencyIndex = AdjacencyIndex.load(
+                schemaFilePath.resolveSibling(AdjacencyIndex.FILE_NAME), graph, path.getFileName().toString());
+        final ModelCache modelCache = modelCacheSize > 0 ? new ModelCache(modelCacheSize * 1024L * 1024L) : null;
+        final RuntimeWiring wiring = RuntimeWiring.newRuntimeWiring().wiringFactory(
+                new GraphWiringFactory(new GraphAccessor(graph, metrics, modelCache, adjacencyIndex), metrics)).build();
+        final GraphQLSchema schema = new SchemaGenerator().makeExecutableSchema(typeRegistry, wiring);
+        return GraphQL.newGraphQL(schema).preparsedDocumentProvider(new QueryDocumentCache(10000)).build();
+    }
+}
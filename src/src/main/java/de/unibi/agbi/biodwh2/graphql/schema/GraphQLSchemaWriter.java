@@ -6,12 +6,29 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 public final class GraphQLSchemaWriter extends SchemaWriter {
     @SuppressWarnings("SpellCheckingInspection")
     public static final String EXTENSION = "graphqls";
+    /**
+     * Version of the generated schema layout. Needs to be increased whenever the writer output changes, so existing
+     * workspace schemas are regenerated.
+     */
+    public static final int VERSION = 7;
+    public static final String CONNECTION_SUFFIX = "Connection";
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final String WHERE_SUFFIX = "Where";
+    public static final String WHERE_ARGUMENT = "_where";
+    public static final String COUNT_SUFFIX = "_count";
+    public static final String AGGREGATE_SUFFIX = "_aggregate";
+    public static final String GROUP_BY_ARGUMENT = "groupBy";
+    public static final String NEIGHBORHOOD_FIELD = "_neighborhood";
+    public static final String SHORTEST_PATH_FIELD = "_shortestPath";
 
     public GraphQLSchemaWriter(final GraphSchema schema) {
         super(schema);
@@ -38,12 +55,36 @@ public final class GraphQLSchemaWriter extends SchemaWriter {
         writeLine(writer, "# Edge type definitions");
         for (final GraphSchema.EdgeType type : schema.getEdgeTypes())
             writeEdgeType(writer, type);
+        writer.newLine();
+        writeLine(writer, "# Connection type definitions");
+        for (final GraphSchema.BaseType type : schema.getNodeTypes())
+            writeConnectionType(writer, type);
+        for (final GraphSchema.BaseType type : schema.getEdgeTypes())
+            writeConnectionType(writer, type);
+        writer.newLine();
+        writeLine(writer, "# Filter input type definitions");
+        for (final GraphSchema.BaseType type : schema.getNodeTypes())
+            writeWhereInputType(writer, type);
+        for (final GraphSchema.BaseType type : schema.getEdgeTypes())
+            writeWhereInputType(writer, type);
+        writer.newLine();
+        writeLine(writer, "# Aggregate type definitions");
+        for (final GraphSchema.BaseType type : schema.getNodeTypes())
+            writeAggregateTypes(writer, type);
+        for (final GraphSchema.BaseType type : schema.getEdgeTypes())
+            writeAggregateTypes(writer, type);
     }
 
     private void writeDirectives(final BufferedWriter writer) throws IOException {
         writeLine(writer, "# Primary directive definitions");
         writeLine(writer, "directive @GraphLabel(value: String) on OBJECT");
         writeLine(writer, "directive @GraphProperty(value: String) on FIELD_DEFINITION");
+        writeLine(writer, "directive @GraphStatistics(count: Int) on OBJECT");
+        writeLine(writer, "directive @GraphAggregate(type: String) on FIELD_DEFINITION");
+        writer.newLine();
+        writeLine(writer, "# Incremental delivery directive definitions");
+        writeLine(writer, "directive @defer(label: String, if: Boolean = true) on FRAGMENT_SPREAD | INLINE_FRAGMENT");
+        writeLine(writer, "directive @stream(label: String, initialCount: Int = 0, if: Boolean = true) on FIELD");
         writer.newLine();
     }
 
@@ -62,7 +103,56 @@ public final class GraphQLSchemaWriter extends SchemaWriter {
         writeLine(writer, "  _to_id: ID!");
         writeLine(writer, "  _to: Node!");
         writeLine(writer, "}");
+        writeLine(writer, "interface Connection {");
+        writeLine(writer, "  pageInfo: PageInfo!");
+        writeLine(writer, "}");
+        writeLine(writer, "type PageInfo {");
+        writeLine(writer, "  hasNextPage: Boolean!");
+        writeLine(writer, "  endCursor: String");
+        writeLine(writer, "}");
         writer.newLine();
+        writeLine(writer, "# Traversal type definitions");
+        writeLine(writer, "enum TraversalDirection {");
+        writeLine(writer, "  OUTGOING");
+        writeLine(writer, "  INCOMING");
+        writeLine(writer, "  BOTH");
+        writeLine(writer, "}");
+        writeLine(writer, "type Neighborhood {");
+        writeLine(writer, "  nodes: [Node!]!");
+        writeLine(writer, "  edges: [Edge!]!");
+        writeLine(writer, "}");
+        writeLine(writer, "type ShortestPath {");
+        writeLine(writer, "  length: Int!");
+        writeLine(writer, "  nodes: [Node!]!");
+        writeLine(writer, "  edges: [Edge!]!");
+        writeLine(writer, "}");
+        writer.newLine();
+        writeLine(writer, "# Primary filter input definitions");
+        writeLine(writer, "input IDFilter {");
+        writeLine(writer, "  eq: ID");
+        writeLine(writer, "  in: [ID!]");
+        writeLine(writer, "}");
+        writeRangeFilterInput(writer, "String", true);
+        writeRangeFilterInput(writer, "Int", false);
+        writeRangeFilterInput(writer, "Float", false);
+        writeLine(writer, "input BooleanFilter {");
+        writeLine(writer, "  eq: Boolean");
+        writeLine(writer, "  in: [Boolean!]");
+        writeLine(writer, "}");
+        writer.newLine();
+    }
+
+    private void writeRangeFilterInput(final BufferedWriter writer, final String scalar,
+                                       final boolean prefix) throws IOException {
+        writeLine(writer, "input " + scalar + "Filter {");
+        writeLine(writer, "  eq: " + scalar);
+        writeLine(writer, "  in: [" + scalar + "!]");
+        writeLine(writer, "  gt: " + scalar);
+        writeLine(writer, "  lt: " + scalar);
+        writeLine(writer, "  between: [" + scalar + "!]");
+        if (prefix)
+            writeLine(writer, "  startsWith: String");
+        writeLine(writer, "}");
     }
 
     private void writeLine(final BufferedWriter writer, final String line) throws IOException {
@@ -81,6 +171,10 @@ public final class GraphQLSchemaWriter extends SchemaWriter {
         writeLine(writer, "  _node(_id: ID!): Node");
         writeLine(writer, "  _edge(_id: ID!): Edge");
         writeLine(writer, "  _edges(_to_id: ID, _from_id: ID, _label: String): [Edge!]!");
+        writeLine(writer, "  " + NEIGHBORHOOD_FIELD + "(_id: ID!, depth: Int = 1, edgeLabels: [String!], " +
+                          "direction: TraversalDirection = OUTGOING): Neighborhood!");
+        writeLine(writer, "  " + SHORTEST_PATH_FIELD + "(fromId: ID!, toId: ID!, maxDepth: Int = 6, " +
+                          "edgeLabels: [String!], direction: TraversalDirection = OUTGOING): ShortestPath");
         writer.newLine();
         writeLine(writer, "  # Node query endpoints");
         for (final GraphSchema.BaseType type : schema.getNodeTypes())
@@ -89,16 +183,56 @@ public final class GraphQLSchemaWriter extends SchemaWriter {
         writeLine(writer, "  # Edge query endpoints");
         for (final GraphSchema.BaseType type : schema.getEdgeTypes())
             writeQueryTypeEndpoint(writer, type);
+        writer.newLine();
+        writeLine(writer, "  # Paginated query endpoints");
+        for (final GraphSchema.BaseType type : schema.getNodeTypes())
+            writeQueryTypeConnectionEndpoint(writer, type);
+        for (final GraphSchema.BaseType type : schema.getEdgeTypes())
+            writeQueryTypeConnectionEndpoint(writer, type);
+        writer.newLine();
+        writeLine(writer, "  # Aggregate query endpoints");
+        for (final GraphSchema.BaseType type : schema.getNodeTypes())
+            writeAggregateEndpoints(writer, type, buildArgumentsString(type.propertyKeyTypes));
+        for (final GraphSchema.BaseType type : schema.getEdgeTypes())
+            writeAggregateEndpoints(writer, type, buildArgumentsString(type.propertyKeyTypes));
         writeLine(writer, "}");
         writer.newLine();
     }
 
     private void writeQueryTypeEndpoint(final BufferedWriter writer,
                                         final GraphSchema.BaseType type) throws IOException {
-        final String arguments = buildArgumentsString(type.propertyKeyTypes);
+        String arguments = buildArgumentsString(type.propertyKeyTypes);
+        arguments += (arguments.length() > 0 ? ", " : "") + buildWhereArgumentString(type);
         writeLine(writer, "  " + type.fixedLabel() + "(" + arguments + "): [" + type.fixedLabel() + "!]!");
     }
 
+    private String buildWhereArgumentString(final GraphSchema.BaseType type) {
+        return WHERE_ARGUMENT + ": " + type.fixedLabel() + WHERE_SUFFIX;
+    }
+
+    private void writeQueryTypeConnectionEndpoint(final BufferedWriter writer,
+                                                  final GraphSchema.BaseType type) throws IOException {
+        final String connectionTypeName = type.fixedLabel() + CONNECTION_SUFFIX;
+        String arguments = "first: Int = " + DEFAULT_PAGE_SIZE + ", after: String";
+        final String filterArguments = buildArgumentsString(type.propertyKeyTypes);
+        if (filterArguments.length() > 0)
+            arguments += ", " + filterArguments;
+        arguments += ", " + buildWhereArgumentString(type);
+        writeLine(writer, "  " + connectionTypeName + "(" + arguments + "): " + connectionTypeName + "!");
+    }
+
+    private void writeAggregateEndpoints(final BufferedWriter writer, final GraphSchema.BaseType type,
+                                         final String filterArguments) throws IOException {
+        String arguments = filterArguments.length() > 0 ? filterArguments + ", " : "";
+        arguments += buildWhereArgumentString(type);
+        final String directive = " @GraphAggregate(type: \"" + type.fixedLabel() + "\")";
+        writeLine(writer, "  " + type.fixedLabel() + COUNT_SUFFIX + "(" + arguments + "): Int!" + directive);
+        if (!getGroupKeys(type).isEmpty())
+            arguments += ", " + GROUP_BY_ARGUMENT + ": " + type.fixedLabel() + "Property";
+        writeLine(writer, "  " + type.fixedLabel() + AGGREGATE_SUFFIX + "(" + arguments + "): " + type.fixedLabel() +
+                          "Aggregate!" + directive);
+    }
+
     private String buildArgumentsString(final Map<String, Type> propertyKeyTypes) {
         return propertyKeyTypes.keySet().stream().filter(key -> !"_label".equals(key)).map(
                 key -> mapPropertyToKeyTypeDefinition(key, propertyKeyTypes.get(key)).replace("!", "")).collect(
@@ -131,32 +265,125 @@ public final class GraphQLSchemaWriter extends SchemaWriter {
 
     private void writeNodeType(final BufferedWriter writer, final GraphSchema schema,
                                final GraphSchema.NodeType type) throws IOException {
-        final String directive = type.label.equals(type.fixedLabel()) ? "" :
-                                 " @GraphLabel(value: \"" + type.label + "\")";
-        writeLine(writer, "type " + type.fixedLabel() + " implements Node" + directive + " {");
+        writeLine(writer, "type " + type.fixedLabel() + " implements Node" + buildTypeDirectives(type) + " {");
         writeTypeProperties(writer, type);
         for (final GraphSchema.EdgeType edgeType : schema.getEdgeTypes())
             if (edgeType.fromLabels.contains(type.label)) {
                 final String arguments = buildArgumentsString(type.propertyKeyTypes);
                 writeLine(writer,
                           "  " + edgeType.fixedLabel() + '(' + arguments + "): [" + edgeType.fixedLabel() + "!]!");
+                writeAggregateEndpoints(writer, edgeType, "");
             }
         writeLine(writer, "  _edges(_label: String): [Edge!]!");
         writeLine(writer, "}");
     }
 
+    private String buildTypeDirectives(final GraphSchema.BaseType type) {
+        final String labelDirective = type.label.equals(type.fixedLabel()) ? "" :
+                                      " @GraphLabel(value: \"" + type.label + "\")";
+        return labelDirective + " @GraphStatistics(count: " + Math.min(type.count, Integer.MAX_VALUE) + ")";
+    }
+
     private void writeTypeProperties(final BufferedWriter writer, final GraphSchema.BaseType type) throws IOException {
         for (final String key : type.propertyKeyTypes.keySet())
             writeLine(writer, "  " + mapPropertyToKeyTypeDefinition(key, type.propertyKeyTypes.get(key)));
     }
 
     private void writeEdgeType(final BufferedWriter writer, final GraphSchema.EdgeType type) throws IOException {
-        final String directive = type.label.equals(type.fixedLabel()) ? "" :
-                                 " @GraphLabel(value: \"" + type.label + "\")";
-        writeLine(writer, "type " + type.fixedLabel() + " implements Edge" + directive + " {");
+        writeLine(writer, "type " + type.fixedLabel() + " implements Edge" + buildTypeDirectives(type) + " {");
         writeTypeProperties(writer, type);
         writeLine(writer, "  _from: Node!");
         writeLine(writer, "  _to: Node!");
         writeLine(writer, "}");
     }
+
+    private void writeWhereInputType(final BufferedWriter writer,
+                                     final GraphSchema.BaseType type) throws IOException {
+        writeLine(writer, "input " + type.fixedLabel() + WHERE_SUFFIX + " {");
+        for (final String key : type.propertyKeyTypes.keySet()) {
+            final Type keyType = type.propertyKeyTypes.get(key);
+            if (!"_label".equals(key) && !keyType.isList())
+                writeLine(writer, "  " + key + ": " + getGraphQLTypeName(key, keyType).replace("!", "") + "Filter");
+        }
+        writeLine(writer, "}");
+    }
+
+    /**
+     * Writes the result types of the aggregate endpoints. Minimum, maximum and average are only available for numeric
+     * properties and grouping only for scalar properties which are valid enum value names.
+     */
+    private void writeAggregateTypes(final BufferedWriter writer,
+                                     final GraphSchema.BaseType type) throws IOException {
+        final String aggregateTypeName = type.fixedLabel() + "Aggregate";
+        final List<String> numericKeys = getNumericKeys(type);
+        final List<String> groupKeys = getGroupKeys(type);
+        writeLine(writer, "type " + aggregateTypeName + " {");
+        writeAggregateFields(writer, aggregateTypeName, numericKeys);
+        if (!groupKeys.isEmpty())
+            writeLine(writer, "  groups: [" + aggregateTypeName + "Group!]!");
+        writeLine(writer, "}");
+        if (!groupKeys.isEmpty()) {
+            writeLine(writer, "type " + aggregateTypeName + "Group {");
+            writeLine(writer, "  key: String");
+            writeAggregateFields(writer, aggregateTypeName, numericKeys);
+            writeLine(writer, "}");
+            writeLine(writer, "enum " + type.fixedLabel() + "Property {");
+            for (final String key : groupKeys)
+                writeLine(writer, "  " + key);
+            writeLine(writer, "}");
+        }
+        if (!numericKeys.isEmpty()) {
+            writeLine(writer, "type " + aggregateTypeName + "Values {");
+            for (final String key : numericKeys)
+                writeLine(writer, "  " + key + ": Float");
+            writeLine(writer, "}");
+        }
+    }
+
+    private void writeAggregateFields(final BufferedWriter writer, final String aggregateTypeName,
+                                      final List<String> numericKeys) throws IOException {
+        writeLine(writer, "  count: Int!");
+        if (!numericKeys.isEmpty()) {
+            writeLine(writer, "  min: " + aggregateTypeName + "Values");
+            writeLine(writer, "  max: " + aggregateTypeName + "Values");
+            writeLine(writer, "  avg: " + aggregateTypeName + "Values");
+        }
+    }
+
+    private List<String> getNumericKeys(final GraphSchema.BaseType type) {
+        final List<String> keys = new ArrayList<>();
+        for (final String key : type.propertyKeyTypes.keySet()) {
+            final Type keyType = type.propertyKeyTypes.get(key);
+            if (keyType.isList())
+                continue;
+            final String typeName = getGraphQLTypeName(key, keyType);
+            if ("Int".equals(typeName) || "Float".equals(typeName))
+                keys.add(key);
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private List<String> getGroupKeys(final GraphSchema.BaseType type) {
+        final List<String> keys = new ArrayList<>();
+        for (final String key : type.propertyKeyTypes.keySet())
+            if (!"_id".equals(key) && !"_label".equals(key) && !"true".equals(key) && !"false".equals(key) &&
+                !"null".equals(key) && !type.propertyKeyTypes.get(key).isList())
+                keys.add(key);
+        Collections.sort(keys);
+        return keys;
+    }
+
+    private void writeConnectionType(final BufferedWriter writer,
+                                     final GraphSchema.BaseType type) throws IOException {
+        final String connectionTypeName = type.fixedLabel() + CONNECTION_SUFFIX;
+        writeLine(writer, "type " + connectionTypeName + " implements Connection {");
+        writeLine(writer, "  edges: [" + connectionTypeName + "Edge!]!");
+        writeLine(writer, "  pageInfo: PageInfo!");
+        writeLine(writer, "}");
+        writeLine(writer, "type " + connectionTypeName + "Edge {");
+        writeLine(writer, "  cursor: String!");
+        writeLine(writer, "  node: " + type.fixedLabel() + "!");
+        writeLine(writer, "}");
+    }
 }
@@ -3,13 +3,17 @@ package de.unibi.agbi.biodwh2.graphql.schema;
 import de.unibi.agbi.biodwh2.core.lang.Type;
 import de.unibi.agbi.biodwh2.core.model.graph.Edge;
 import de.unibi.agbi.biodwh2.core.model.graph.Graph;
+import de.unibi.agbi.biodwh2.core.model.graph.Node;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class GraphSchema {
     public static class BaseType {
         String label;
+        long count;
         Map<String, Type> propertyKeyTypes = new HashMap<>();
 
         final String fixedLabel() {
@@ -67,16 +71,31 @@ public class GraphSchema {
             for (final String key : propertyKeyTypes.keySet())
                 type.propertyKeyTypes.put(fixKeyNaming(key), propertyKeyTypes.get(key));
         }
-        for (final Edge edge : graph.getEdges())
-            loadEdgeType(graph, edge);
+        loadEdgeEndpointLabels(graph);
     }
 
-    private void loadEdgeType(final Graph graph, final Edge edge) {
-        final EdgeType type = edgeTypes.get(edge.getLabel());
-        final String fromLabel = graph.getNode(edge.getFromId()).getLabel();
-        final String toLabel = graph.getNode(edge.getToId()).getLabel();
-        type.fromLabels.add(fromLabel);
-        type.toLabels.add(toLabel);
+    /**
+     * Infers the from and to labels of all edge types. Instead of loading both endpoint nodes for every edge, a
+     * compact node ID to label ordinal table is built in one sequential pass over the nodes first. The edges are then
+     * scanned in parallel partitions of one edge label each using fork/join, so reading the edges is spread over all
+     * cores and each partition looks up the endpoint labels in the shared table.
+     */
+    private void loadEdgeEndpointLabels(final Graph graph) {
+        final String[] nodeLabels = graph.getNodeLabels();
+        final String[] edgeLabels = graph.getEdgeLabels();
+        final NodeLabelTable nodeLabelTable = NodeLabelTable.build(graph, nodeLabels);
+        final List<ForkJoinTask<EndpointLabels>> tasks = new ArrayList<>(edgeLabels.length);
+        for (final String label : edgeLabels)
+            tasks.add(ForkJoinPool.commonPool().submit(() -> EndpointLabels.scan(graph, label, nodeLabelTable)));
+        for (int i = 0; i < nodeLabels.length; i++)
+            nodeTypes.get(nodeLabels[i]).count = nodeLabelTable.labelCounts[i];
+        for (int i = 0; i < edgeLabels.length; i++) {
+            final EndpointLabels result = tasks.get(i).join();
+            final EdgeType type = edgeTypes.get(edgeLabels[i]);
+            type.count = result.count;
+            result.fromLabels.stream().forEach(ordinal -> type.fromLabels.add(nodeLabels[ordinal]));
+            result.toLabels.stream().forEach(ordinal -> type.toLabels.add(nodeLabels[ordinal]));
+        }
     }
 
     public NodeType[] getNodeTypes() {
@@ -86,4 +105,89 @@ public class GraphSchema {
     public EdgeType[] getEdgeTypes() {
         return edgeTypes.values().toArray(new EdgeType[0]);
     }
+
+    /**
+     * Sorted table of node IDs and label ordinals packed into single longs, so the whole table is one primitive
+     * array searched with binary search.
+     */
+    static final class NodeLabelTable {
+        private static final int ORDINAL_BITS = 16;
+        private static final long MAX_ID = Long.MAX_VALUE >>> ORDINAL_BITS;
+
+        private final long[] entries;
+        final long[] labelCounts;
+
+        private NodeLabelTable(final long[] entries, final long[] labelCounts) {
+            this.entries = entries;
+            this.labelCounts = labelCounts;
+        }
+
+        static NodeLabelTable build(final Graph graph, final String[] nodeLabels) {
+            if (nodeLabels.length > (1 << ORDINAL_BITS))
+                throw new IllegalStateException("Too many node labels for the node label table");
+            final Map<String, Integer> ordinals = new HashMap<>();
+            for (int i = 0; i < nodeLabels.length; i++)
+                ordinals.put(nodeLabels[i], i);
+            final long[] labelCounts = new long[nodeLabels.length];
+            long[] entries = new long[1024];
+            int size = 0;
+            boolean sorted = true;
+            for (final Node node : graph.getNodes()) {
+                final long id = node.getId();
+                if (id < 0 || id > MAX_ID)
+                    throw new IllegalStateException("Node ID " + id + " exceeds the node label table range");
+                if (size == entries.length)
+                    entries = Arrays.copyOf(entries, entries.length * 2);
+                final int ordinal = ordinals.get(node.getLabel());
+                labelCounts[ordinal]++;
+                entries[size] = (id << ORDINAL_BITS) | ordinal;
+                if (size > 0 && entries[size - 1] > entries[size])
+                    sorted = false;
+                size++;
+            }
+            entries = Arrays.copyOf(entries, size);
+            if (!sorted)
+                Arrays.parallelSort(entries);
+            return new NodeLabelTable(entries, labelCounts);
+        }
+
+        int getLabelOrdinal(final long id) {
+            int low = 0;
+            int high = entries.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final long midId = entries[mid] >>> ORDINAL_BITS;
+                if (midId < id)
+                    low = mid + 1;
+                else if (midId > id)
+                    high = mid - 1;
+                else
+                    return (int) (entries[mid] & ((1L << ORDINAL_BITS) - 1));
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Number of edges of one label and the label ordinals of their from and to nodes.
+     */
+    private static final class EndpointLabels {
+        final BitSet fromLabels = new BitSet();
+        final BitSet toLabels = new BitSet();
+        long count;
+
+        static EndpointLabels scan(final Graph graph, final String edgeLabel, final NodeLabelTable nodeLabelTable) {
+            final EndpointLabels result = new EndpointLabels();
+            for (final Edge edge : graph.findEdges(edgeLabel)) {
+                final int fromLabel = nodeLabelTable.getLabelOrdinal(edge.getFromId());
+                final int toLabel = nodeLabelTable.getLabelOrdinal(edge.getToId());
+                if (fromLabel != -1)
+                    result.fromLabels.set(fromLabel);
+                if (toLabel != -1)
+                    result.toLabels.set(toLabel);
+                result.count++;
+            }
+            return result;
+        }
+    }
 }
@@ -0,0 +1,277 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.model.graph.Edge;
+import de.unibi.agbi.biodwh2.core.model.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compressed sparse row index of the outgoing edges of all nodes, stored in a file and memory-mapped. The file holds
+ * the sorted IDs of all nodes with outgoing edges, the offset of each node's first edge and one packed record of edge
+ * ID, target node ID and label ordinal per edge. Traversals read the records sequentially off-heap instead of querying
+ * and deserializing the edges from the graph.
+ */
+final class AdjacencyIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdjacencyIndex.class);
+    static final String FILE_NAME = "adjacency.bin";
+    private static final int MAGIC = 0x42444a49;
+    private static final int VERSION = 1;
+    private static final int EDGE_RECORD_SIZE = 20;
+    /**
+     * Records per mapped chunk, so that each chunk stays below the 2 GB limit of a single mapping.
+     */
+    private static final long RECORDS_PER_CHUNK = 1L << 26;
+
+    private final String[] labels;
+    private final Map<String, Integer> labelOrdinals = new HashMap<>();
+    private final long nodeCount;
+    private final Section nodeIds;
+    private final Section offsets;
+    private final Section edges;
+
+    private AdjacencyIndex(final FileChannel channel, final String[] labels, final long nodeCount,
+                           final long edgeCount, final long position) throws IOException {
+        this.labels = labels;
+        for (int i = 0; i < labels.length; i++)
+            labelOrdinals.put(labels[i], i);
+        this.nodeCount = nodeCount;
+        nodeIds = new Section(channel, position, nodeCount, Long.BYTES);
+        offsets = new Section(channel, position + nodeCount * Long.BYTES, nodeCount + 1, Long.BYTES);
+        edges = new Section(channel, position + (2 * nodeCount + 1) * Long.BYTES, edgeCount, EDGE_RECORD_SIZE);
+    }
+
+    /**
+     * Opens the index file if it was built for the given workspace hash or builds it from the graph otherwise.
+     */
+    static AdjacencyIndex load(final Path filePath, final Graph graph, final String workspaceHash) throws IOException {
+        AdjacencyIndex index = open(filePath, workspaceHash);
+        if (index == null) {
+            if (LOGGER.isInfoEnabled())
+                LOGGER.info("Building adjacency index...");
+            build(filePath, graph, workspaceHash);
+            index = open(filePath, workspaceHash);
+            if (index == null)
+                throw new IOException("Failed to open adjacency index '" + filePath + "'");
+        }
+        return index;
+    }
+
+    private static AdjacencyIndex open(final Path filePath, final String workspaceHash) throws IOException {
+        if (Files.notExists(filePath))
+            return null;
+        try (final FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            final DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !workspaceHash.equals(input.readUTF()))
+                return null;
+            final String[] labels = new String[input.readInt()];
+            for (int i = 0; i < labels.length; i++)
+                labels[i] = input.readUTF();
+            final long nodeCount = input.readLong();
+            final long edgeCount = input.readLong();
+            final long position = input.readLong();
+            // Mappings stay valid after the channel is closed
+            return new AdjacencyIndex(channel, labels, nodeCount, edgeCount, position);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builds the index in two passes over all edges. The first pass counts the outgoing edges per node, the second
+     * writes each edge record to its node's slot. Edges keep the graph's iteration order within each node. Only the
+     * per-node state is kept on the heap, while the edge records go directly into the mapped file.
+     */
+    private static void build(final Path filePath, final Graph graph, final String workspaceHash) throws IOException {
+        final Map<String, Integer> labelOrdinals = new LinkedHashMap<>();
+        final LongIdSet nodes = new LongIdSet();
+        // Out-degree per node index of the set during the first pass and write position during the second
+        long[] positions = new long[1024];
+        long edgeCount = 0;
+        for (final Edge edge : graph.getEdges()) {
+            int node = nodes.indexOf(edge.getFromId());
+            if (node < 0) {
+                node = nodes.add(edge.getFromId());
+                if (node == positions.length)
+                    positions = Arrays.copyOf(positions, node * 2);
+            }
+            positions[node]++;
+            edgeCount++;
+            labelOrdinals.putIfAbsent(edge.getLabel(), labelOrdinals.size());
+        }
+        final long[] nodeIds = nodes.toArray();
+        Arrays.sort(nodeIds);
+        final int nodeCount = nodeIds.length;
+        final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        final DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeUTF(workspaceHash);
+        header.writeInt(labelOrdinals.size());
+        for (final String label : labelOrdinals.keySet())
+            header.writeUTF(label);
+        header.writeLong(nodeCount);
+        header.writeLong(edgeCount);
+        final long position = (headerBytes.size() + Long.BYTES + 7) & ~7L;
+        header.writeLong(position);
+        final Path tempFilePath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(tempFilePath, StandardOpenOption.CREATE,
+                                                          StandardOpenOption.TRUNCATE_EXISTING,
+                                                          StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(headerBytes.toByteArray()));
+            final Section nodeIdSection = new Section(channel, position, nodeCount, Long.BYTES, true);
+            final Section offsetSection = new Section(channel, position + (long) nodeCount * Long.BYTES,
+                                                      nodeCount + 1L, Long.BYTES, true);
+            final Section edgeSection = new Section(channel, position + (2L * nodeCount + 1) * Long.BYTES,
+                                                    edgeCount, EDGE_RECORD_SIZE, true);
+            long offset = 0;
+            for (int i = 0; i < nodeCount; i++) {
+                final int node = nodes.indexOf(nodeIds[i]);
+                final long degree = positions[node];
+                nodeIdSection.putLong(i, 0, nodeIds[i]);
+                offsetSection.putLong(i, 0, offset);
+                positions[node] = offset;
+                offset += degree;
+            }
+            offsetSection.putLong(nodeCount, 0, offset);
+            long written = 0;
+            for (final Edge edge : graph.getEdges()) {
+                final int node = nodes.indexOf(edge.getFromId());
+                if (node < 0 || written++ == edgeCount)
+                    throw new IOException("Graph changed while building the adjacency index");
+                final long record = positions[node]++;
+                edgeSection.putLong(record, 0, edge.getId());
+                edgeSection.putLong(record, Long.BYTES, edge.getToId());
+                edgeSection.putInt(record, 2 * Long.BYTES, labelOrdinals.get(edge.getLabel()));
+            }
+            // Each node's write position has to end at the start of the next node if no edge was added or removed
+            for (int i = 0; i < nodeCount; i++)
+                if (positions[nodes.indexOf(nodeIds[i])] != offsetSection.getLong(i + 1, 0))
+                    throw new IOException("Graph changed while building the adjacency index");
+            nodeIdSection.force();
+            offsetSection.force();
+            edgeSection.force();
+        }
+        Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns a cursor over the outgoing edges of a node. If a label is given, only edges with this label are returned.
+     */
+    Cursor getOutgoingEdges(final long nodeId, final String label) {
+        final Integer ordinal = label != null ? labelOrdinals.get(label) : null;
+        if (label != null && ordinal == null)
+            return new Cursor(0, 0, -1);
+        final int labelOrdinal = ordinal != null ? ordinal : -1;
+        long low = 0;
+        long high = nodeCount - 1;
+        while (low <= high) {
+            final long middle = (low + high) >>> 1;
+            final long middleId = nodeIds.getLong(middle, 0);
+            if (middleId < nodeId)
+                low = middle + 1;
+            else if (middleId > nodeId)
+                high = middle - 1;
+            else
+                return new Cursor(offsets.getLong(middle, 0), offsets.getLong(middle + 1, 0), labelOrdinal);
+        }
+        return new Cursor(0, 0, labelOrdinal);
+    }
+
+    /**
+     * Forward-only cursor over a range of edge records.
+     */
+    final class Cursor {
+        private final long end;
+        private final int labelOrdinal;
+        private long record;
+
+        private Cursor(final long start, final long end, final int labelOrdinal) {
+            this.end = end;
+            this.labelOrdinal = labelOrdinal;
+            record = start - 1;
+        }
+
+        boolean next() {
+            while (++record < end)
+                if (labelOrdinal < 0 || edges.getInt(record, 2 * Long.BYTES) == labelOrdinal)
+                    return true;
+            return false;
+        }
+
+        long getEdgeId() {
+            return edges.getLong(record, 0);
+        }
+
+        long getToId() {
+            return edges.getLong(record, Long.BYTES);
+        }
+
+        String getLabel() {
+            return labels[edges.getInt(record, 2 * Long.BYTES)];
+        }
+    }
+
+    /**
+     * Fixed size records mapped in chunks. Reads use absolute positions only, so a section can be shared between
+     * threads.
+     */
+    private static final class Section {
+        private final MappedByteBuffer[] chunks;
+        private final int recordSize;
+
+        Section(final FileChannel channel, final long position, final long records,
+                final int recordSize) throws IOException {
+            this(channel, position, records, recordSize, false);
+        }
+
+        Section(final FileChannel channel, final long position, final long records, final int recordSize,
+                final boolean writable) throws IOException {
+            this.recordSize = recordSize;
+            chunks = new MappedByteBuffer[(int) Math.max(1, (records + RECORDS_PER_CHUNK - 1) / RECORDS_PER_CHUNK)];
+            final FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE :
+                                             FileChannel.MapMode.READ_ONLY;
+            for (int i = 0; i < chunks.length; i++) {
+                final long chunkRecords = Math.min(RECORDS_PER_CHUNK, records - i * RECORDS_PER_CHUNK);
+                chunks[i] = channel.map(mode, position + i * RECORDS_PER_CHUNK * recordSize,
+                                        Math.max(0, chunkRecords) * recordSize);
+            }
+        }
+
+        long getLong(final long record, final int offset) {
+            return chunks[(int) (record / RECORDS_PER_CHUNK)].getLong(getPosition(record, offset));
+        }
+
+        int getInt(final long record, final int offset) {
+            return chunks[(int) (record / RECORDS_PER_CHUNK)].getInt(getPosition(record, offset));
+        }
+
+        void putLong(final long record, final int offset, final long value) {
+            chunks[(int) (record / RECORDS_PER_CHUNK)].putLong(getPosition(record, offset), value);
+        }
+
+        void putInt(final long record, final int offset, final int value) {
+            chunks[(int) (record / RECORDS_PER_CHUNK)].putInt(getPosition(record, offset), value);
+        }
+
+        private int getPosition(final long record, final int offset) {
+            return (int) (record % RECORDS_PER_CHUNK) * recordSize + offset;
+        }
+
+        void force() {
+            for (final MappedByteBuffer chunk : chunks)
+                chunk.force();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.io.mvstore.MVStoreModel;
+import graphql.GraphQLException;
+
+import java.util.*;
+
+/**
+ * Accumulates the count, minimum, maximum and average of numeric properties while models are streamed from the graph,
+ * optionally grouped by the value of one property. Only the running statistics are retained, never the models.
+ */
+final class Aggregation {
+    /**
+     * Maximum number of distinct group values before the aggregation is aborted.
+     */
+    static final int MAX_GROUPS = 10000;
+
+    private final String[] fields;
+    private final String[] propertyKeys;
+    private final String groupKey;
+    private final Statistics total;
+    private final Map<Object, Statistics> groups;
+    private final double[] values;
+    private final boolean[] present;
+
+    Aggregation(final String[] fields, final String groupKey) {
+        this.fields = fields;
+        propertyKeys = new String[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            propertyKeys[i] = QueryPlanner.translatePropertyKey(fields[i]);
+        this.groupKey = groupKey != null ? QueryPlanner.translatePropertyKey(groupKey) : null;
+        total = new Statistics(fields.length);
+        groups = groupKey != null ? new LinkedHashMap<>() : null;
+        values = new double[fields.length];
+        present = new boolean[fields.length];
+    }
+
+    void add(final MVStoreModel model) {
+        for (int i = 0; i < propertyKeys.length; i++) {
+            final Object value = model.getProperty(propertyKeys[i]);
+            present[i] = value instanceof Number;
+            if (present[i])
+                values[i] = ((Number) value).doubleValue();
+        }
+        total.add(values, present);
+        if (groups != null) {
+            final Object key = model.getProperty(groupKey);
+            Statistics group = groups.get(key);
+            if (group == null) {
+                if (groups.size() == MAX_GROUPS)
+                    throw new GraphQLException(
+                            "Grouping by '" + groupKey + "' exceeds the maximum of " + MAX_GROUPS + " groups");
+                group = new Statistics(propertyKeys.length);
+                groups.put(key, group);
+            }
+            group.add(values, present);
+        }
+    }
+
+    Map<String, Object> toResult() {
+        final Map<String, Object> result = total.toResult(fields);
+        if (groups != null) {
+            final List<Map.Entry<Object, Statistics>> entries = new ArrayList<>(groups.entrySet());
+            entries.sort((a, b) -> Long.compare(b.getValue().count, a.getValue().count));
+            final List<Map<String, Object>> groupResults = new ArrayList<>(entries.size());
+            for (final Map.Entry<Object, Statistics> entry : entries) {
+                final Map<String, Object> groupResult = entry.getValue().toResult(fields);
+                groupResult.put("key", entry.getKey() != null ? entry.getKey().toString() : null);
+                groupResults.add(groupResult);
+            }
+            result.put("groups", groupResults);
+        } else
+            result.put("groups", Collections.emptyList());
+        return result;
+    }
+
+    private static final class Statistics {
+        long count;
+        final long[] valueCounts;
+        final double[] min;
+        final double[] max;
+        final double[] sum;
+
+        Statistics(final int size) {
+            valueCounts = new long[size];
+            min = new double[size];
+            max = new double[size];
+            sum = new double[size];
+        }
+
+        void add(final double[] values, final boolean[] present) {
+            count++;
+            for (int i = 0; i < values.length; i++) {
+                if (!present[i])
+                    continue;
+                if (valueCounts[i] == 0 || values[i] < min[i])
+                    min[i] = values[i];
+                if (valueCounts[i] == 0 || values[i] > max[i])
+                    max[i] = values[i];
+                sum[i] += values[i];
+                valueCounts[i]++;
+            }
+        }
+
+        Map<String, Object> toResult(final String[] fields) {
+            final Map<String, Object> minResult = new HashMap<>();
+            final Map<String, Object> maxResult = new HashMap<>();
+            final Map<String, Object> avgResult = new HashMap<>();
+            for (int i = 0; i < fields.length; i++) {
+                if (valueCounts[i] == 0)
+                    continue;
+                minResult.put(fields[i], min[i]);
+                maxResult.put(fields[i], max[i]);
+                avgResult.put(fields[i], sum[i] / valueCounts[i]);
+            }
+            final Map<String, Object> result = new HashMap<>();
+            result.put("count", clampCount(count));
+            result.put("min", minResult);
+            result.put("max", maxResult);
+            result.put("avg", avgResult);
+            return result;
+        }
+    }
+
+    /**
+     * Clamps a count to the range of the GraphQL Int type, as larger values would fail the result coercion.
+     */
+    static int clampCount(final long count) {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+}
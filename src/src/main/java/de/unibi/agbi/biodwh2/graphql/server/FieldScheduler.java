@@ -0,0 +1,92 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Schedules independent fields of one query on a work-stealing pool shared by all queries. A query occupies at most
+ * the given number of threads at once including its calling thread. Fields exceeding the cap are resolved on the
+ * calling thread, so wide queries cannot monopolize the pool and nested fan-outs cannot wait for each other.
+ */
+final class FieldScheduler {
+    static final FieldScheduler SEQUENTIAL = new FieldScheduler(null, 1);
+
+    private final ForkJoinPool pool;
+    private final Semaphore permits;
+
+    FieldScheduler(final ForkJoinPool pool, final int maxParallelism) {
+        this.pool = pool;
+        permits = new Semaphore(Math.max(0, maxParallelism - 1));
+    }
+
+    /**
+     * Resolves a root field asynchronously if a thread is available, otherwise on the calling thread.
+     */
+    <T> CompletableFuture<T> supply(final Supplier<T> supplier) {
+        if (pool != null && permits.tryAcquire()) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return supplier.get();
+                } finally {
+                    permits.release();
+                }
+            }, pool);
+        }
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(supplier.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Runs all tasks and returns once they completed. The last task and all tasks exceeding the cap run on the
+     * calling thread. The first exception of any task is rethrown unchanged.
+     */
+    void invokeAll(final List<Runnable> tasks) {
+        if (pool == null || tasks.size() < 2) {
+            for (final Runnable task : tasks)
+                task.run();
+            return;
+        }
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final List<ForkJoinTask<?>> forked = new ArrayList<>();
+        try {
+            for (int i = 0; i < tasks.size() - 1; i++) {
+                if (!permits.tryAcquire()) {
+                    tasks.get(i).run();
+                    continue;
+                }
+                final Runnable task = tasks.get(i);
+                final ForkJoinTask<?> forkJoinTask = ForkJoinTask.adapt(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+                if (ForkJoinTask.getPool() == pool)
+                    forkJoinTask.fork();
+                else
+                    pool.execute(forkJoinTask);
+                forked.add(forkJoinTask);
+            }
+            tasks.get(tasks.size() - 1).run();
+        } finally {
+            for (final ForkJoinTask<?> task : forked)
+                task.join();
+        }
+        if (failure.get() != null)
+            throw failure.get();
+    }
+}
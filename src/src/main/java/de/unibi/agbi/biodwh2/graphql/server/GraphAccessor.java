@@ -0,0 +1,192 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.io.mvstore.MVStoreModel;
+import de.unibi.agbi.biodwh2.core.model.graph.Edge;
+import de.unibi.agbi.biodwh2.core.model.graph.Graph;
+import de.unibi.agbi.biodwh2.core.model.graph.IndexDescription;
+import de.unibi.agbi.biodwh2.core.model.graph.Node;
+
+import java.util.*;
+
+/**
+ * Access layer between the data fetchers and the graph. Every lookup is timed and the rows read from its result are
+ * counted. As graph lookups are lazy, the time spent iterating the results is included in the measurement. Lookups by
+ * ID are served from the model cache if one is configured, in which case only cache misses reach the graph.
+ */
+final class GraphAccessor {
+    private static final String LABEL_FIELD = "__label";
+
+    private final Graph graph;
+    private final ServerMetrics metrics;
+    private final ModelCache cache;
+    private final AdjacencyIndex adjacency;
+    private final Set<String> indexedProperties = new HashSet<>();
+
+    GraphAccessor(final Graph graph, final ServerMetrics metrics, final ModelCache cache,
+                  final AdjacencyIndex adjacency) {
+        this.graph = graph;
+        this.metrics = metrics;
+        this.cache = cache;
+        this.adjacency = adjacency;
+        for (final IndexDescription description : graph.indexDescriptions())
+            indexedProperties.add(getIndexKey(description.getTarget() == IndexDescription.Target.NODE,
+                                              description.getLabel(), description.getProperty()));
+    }
+
+    private static String getIndexKey(final boolean isNode, final String label, final String property) {
+        return (isNode ? "node:" : "edge:") + label + ':' + property;
+    }
+
+    /**
+     * Returns whether lookups by the given property are served by an index instead of a label scan. IDs and edge
+     * endpoints are always indexed.
+     */
+    boolean isIndexed(final boolean isNode, final String label, final String property) {
+        if (MVStoreModel.ID_FIELD.equals(property))
+            return true;
+        if (!isNode && (Edge.FROM_ID_FIELD.equals(property) || Edge.TO_ID_FIELD.equals(property)))
+            return true;
+        return indexedProperties.contains(getIndexKey(isNode, label, property));
+    }
+
+    boolean hasAdjacencyIndex() {
+        return adjacency != null;
+    }
+
+    /**
+     * Returns the outgoing edges of a node from the adjacency index. If a label is given, only edges with this label
+     * are returned. Requires an adjacency index to be available.
+     */
+    AdjacencyIndex.Cursor getOutgoingEdges(final long nodeId, final String label) {
+        final long start = System.nanoTime();
+        final AdjacencyIndex.Cursor cursor = adjacency.getOutgoingEdges(nodeId, label);
+        metrics.observeGraphCall("adjacency", System.nanoTime() - start, 1);
+        return cursor;
+    }
+
+    Node getNode(final long id) {
+        return cache != null ? cache.getNode(id, this::loadNode) : loadNode(id);
+    }
+
+    Edge getEdge(final long id) {
+        return cache != null ? cache.getEdge(id, this::loadEdge) : loadEdge(id);
+    }
+
+    private Node loadNode(final long id) {
+        final long start = System.nanoTime();
+        final Node node = graph.getNode(id);
+        metrics.observeGraphCall("getNode", System.nanoTime() - start, node != null ? 1 : 0);
+        return node;
+    }
+
+    private Edge loadEdge(final long id) {
+        final long start = System.nanoTime();
+        final Edge edge = graph.getEdge(id);
+        metrics.observeGraphCall("getEdge", System.nanoTime() - start, edge != null ? 1 : 0);
+        return edge;
+    }
+
+    MeteredIterator<Node> findNodes(final String label, final Map<String, Comparable<?>> properties) {
+        final Long id = getIdLookup(properties);
+        if (id != null)
+            return getModelIterator(getNode(id), label);
+        final long start = System.nanoTime();
+        return new MeteredIterator<>("findNodes", start, graph.findNodes(label, properties).iterator());
+    }
+
+    MeteredIterator<Node> findNodes(final Map<String, Comparable<?>> properties) {
+        final Long id = getIdLookup(properties);
+        if (id != null)
+            return getModelIterator(getNode(id), null);
+        final long start = System.nanoTime();
+        return new MeteredIterator<>("findNodes", start, graph.findNodes(properties).iterator());
+    }
+
+    MeteredIterator<Edge> findEdges(final String label, final Map<String, Comparable<?>> properties) {
+        final Long id = getIdLookup(properties);
+        if (id != null)
+            return getModelIterator(getEdge(id), label);
+        final long start = System.nanoTime();
+        return new MeteredIterator<>("findEdges", start, graph.findEdges(label, properties).iterator());
+    }
+
+    MeteredIterator<Edge> findEdges(final Map<String, Comparable<?>> properties) {
+        final Long id = getIdLookup(properties);
+        if (id != null)
+            return getModelIterator(getEdge(id), null);
+        final long start = System.nanoTime();
+        return new MeteredIterator<>("findEdges", start, graph.findEdges(properties).iterator());
+    }
+
+    /**
+     * Returns the ID if the properties only filter by ID, so the lookup can go through the model cache.
+     */
+    private Long getIdLookup(final Map<String, Comparable<?>> properties) {
+        if (cache == null || properties.size() != 1)
+            return null;
+        final Object id = properties.get(MVStoreModel.ID_FIELD);
+        return id instanceof Long ? (Long) id : null;
+    }
+
+    /**
+     * Wraps the result of an ID lookup. The lookup itself was already recorded, so the iterator is not.
+     */
+    private <T extends MVStoreModel> MeteredIterator<T> getModelIterator(final T model, final String label) {
+        final boolean matches = model != null && (label == null || label.equals(model.getProperty(LABEL_FIELD)));
+        return new MeteredIterator<>(null, System.nanoTime(), matches ? Collections.singletonList(model).iterator() :
+                                                              Collections.<T>emptyIterator());
+    }
+
+    /**
+     * Iterator recording the lookup once it is exhausted or closed, whichever happens first. It is also iterable
+     * once, so it can be used directly in for-each loops.
+     */
+    final class MeteredIterator<T> implements Iterator<T>, Iterable<T>, AutoCloseable {
+        private final String call;
+        private final Iterator<T> iterator;
+        private long elapsedNanos;
+        private long rows;
+        private boolean recorded;
+
+        private MeteredIterator(final String call, final long start, final Iterator<T> iterator) {
+            this.call = call;
+            this.iterator = iterator;
+            elapsedNanos = System.nanoTime() - start;
+            recorded = call == null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (recorded)
+                return iterator.hasNext();
+            final long start = System.nanoTime();
+            final boolean hasNext = iterator.hasNext();
+            elapsedNanos += System.nanoTime() - start;
+            if (!hasNext)
+                close();
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            final long start = System.nanoTime();
+            final T next = iterator.next();
+            elapsedNanos += System.nanoTime() - start;
+            rows++;
+            return next;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (!recorded) {
+                recorded = true;
+                metrics.observeGraphCall(call, elapsedNanos, rows);
+            }
+        }
+    }
+}
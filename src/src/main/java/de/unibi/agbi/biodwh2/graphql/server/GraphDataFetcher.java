@@ -2,109 +2,388 @@ package de.unibi.agbi.biodwh2.graphql.server;
 
 import de.unibi.agbi.biodwh2.core.io.mvstore.MVStoreModel;
 import de.unibi.agbi.biodwh2.core.model.graph.Edge;
-import de.unibi.agbi.biodwh2.core.model.graph.Graph;
 import de.unibi.agbi.biodwh2.core.model.graph.Node;
-import de.unibi.agbi.biodwh2.graphql.schema.GraphSchema;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
+import graphql.GraphQLException;
 import graphql.language.*;
 import graphql.schema.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Predicate;
 
 final class GraphDataFetcher implements DataFetcher<Object> {
     private static final Logger LOGGER = LoggerFactory.getLogger(GraphDataFetcher.class);
     private static final String LABEL_FIELD = "__label";
+    private static final String FIRST_ARGUMENT = "first";
+    private static final String AFTER_ARGUMENT = "after";
 
-    private final Graph graph;
+    private final GraphAccessor graph;
+    private final QueryPlanner planner;
+    private final ServerMetrics metrics;
 
-    public GraphDataFetcher(final Graph graph) {
+    public GraphDataFetcher(final GraphAccessor graph, final QueryPlanner planner, final ServerMetrics metrics) {
         this.graph = graph;
+        this.planner = planner;
+        this.metrics = metrics;
     }
 
     @Override
     public Object get(final DataFetchingEnvironment environment) {
         if (environment.getSource() != null) {
             final Map<String, Object> properties = environment.getSource();
+            final String resultKey = environment.getField().getResultKey();
+            if (properties.containsKey(resultKey))
+                return properties.get(resultKey);
             return properties.get(environment.getFieldDefinition().getName());
         }
+        // Root fields are only resolved in parallel if there are siblings to overlap with
+        if (environment.getOperationDefinition().getSelectionSet().getSelections().size() > 1)
+            return getScheduler(environment).supply(() -> getObject(environment));
         return getObject(environment);
     }
 
+    private static FieldScheduler getScheduler(final DataFetchingEnvironment environment) {
+        final FieldScheduler scheduler = environment.getGraphQlContext().get(FieldScheduler.class);
+        return scheduler != null ? scheduler : FieldScheduler.SEQUENTIAL;
+    }
+
     private Object getObject(final DataFetchingEnvironment environment) {
         final GraphQLSchema schema = environment.getGraphQLSchema();
         final Field field = environment.getMergedField().getSingleField();
-        final GraphQLImplementingType implementingType = (GraphQLImplementingType) unwrapType(
-                environment.getFieldType());
-        final Map<String, Comparable<?>> variables = new HashMap<>();
+        final Map<String, Object> variables = new HashMap<>();
         for (final VariableDefinition definition : environment.getOperationDefinition().getVariableDefinitions()) {
-            Comparable<?> value;
+            Object value;
             if (environment.getVariables().containsKey(definition.getName()))
-                value = (Comparable<?>) environment.getVariables().get(definition.getName());
+                value = environment.getVariables().get(definition.getName());
             else
                 value = convertGraphQLValue(null, definition.getDefaultValue(), variables);
             variables.put(definition.getName(), value);
         }
-        return getObject(schema, implementingType, field.getArguments(), field.getSelectionSet(), null, null,
-                         variables);
+        QueryDeadline deadline = environment.getGraphQlContext().get(QueryDeadline.class);
+        if (deadline == null)
+            deadline = QueryDeadline.NONE;
+        final QueryPlanner.TypeTable types = planner.getTypes(schema);
+        final Resolution resolution = new Resolution(types, variables, environment.getFragmentsByName(), deadline,
+                                                     getScheduler(environment));
+        final String fieldName = environment.getFieldDefinition().getName();
+        if (GraphQLSchemaWriter.NEIGHBORHOOD_FIELD.equals(fieldName) ||
+            GraphQLSchemaWriter.SHORTEST_PATH_FIELD.equals(fieldName)) {
+            return traverse(resolution, environment);
+        }
+        final QueryPlanner.FieldDescriptor descriptor = types.get(schema.getQueryType()).fields.get(
+                environment.getFieldDefinition().getName());
+        if (descriptor != null && (descriptor.kind == QueryPlanner.FieldKind.COUNT ||
+                                   descriptor.kind == QueryPlanner.FieldKind.AGGREGATE)) {
+            final Map<String, Comparable<?>> argumentsMap = convertArgumentsForGraph(field.getArguments(), variables);
+            return aggregate(resolution, descriptor, field.getArguments(), argumentsMap);
+        }
+        final QueryPlanner.TypeDescriptor type = types.get(GraphQLTypeUtil.unwrapAll(environment.getFieldType()));
+        final IncrementalDelivery delivery = environment.getGraphQlContext().get(IncrementalDelivery.class);
+        if (delivery != null && (type.isNode || type.isEdge)) {
+            final IncrementalDelivery.StreamedField streamedField = delivery.getStreamedField(field.getResultKey());
+            if (streamedField != null)
+                return selectStreamChunk(resolution, type, field.getArguments(), field.getSelectionSet(),
+                                         streamedField);
+        }
+        return getObject(resolution, type, field.getArguments(), field.getSelectionSet());
     }
 
-    private Object getObject(final GraphQLSchema schema, final GraphQLImplementingType type,
-                             final List<Argument> arguments, final SelectionSet selectionSet, final String filterKey,
-                             final Comparable<?> filterValue, final Map<String, Comparable<?>> variables) {
-        final Map<String, Comparable<?>> argumentsMap = convertArgumentsForGraph(arguments, variables);
-        if (filterKey != null && filterValue != null)
-            argumentsMap.put(filterKey, filterValue);
-        if (typeHasInterface(type, "Node")) {
-            final List<Object> result = new ArrayList<>();
-            for (final Node node : graph.findNodes(getTypeNameOrGraphLabel(type), argumentsMap))
-                result.add(selectResults(schema, selectionSet, node, variables));
-            return result;
-        } else if (typeHasInterface(type, "Edge")) {
-            final List<Object> result = new ArrayList<>();
-            for (final Edge edge : graph.findEdges(getTypeNameOrGraphLabel(type), argumentsMap))
-                result.add(selectResults(schema, selectionSet, edge, variables));
-            return result;
-        } else if (type instanceof GraphQLInterfaceType) {
-            if ("Node".equals(type.getName())) {
+    /**
+     * Selects the next chunk of a streamed root field. The graph iterator is kept open in the streamed field between
+     * the executions of the incremental delivery.
+     */
+    private List<Map<String, Object>> selectStreamChunk(final Resolution resolution,
+                                                        final QueryPlanner.TypeDescriptor type,
+                                                        final List<Argument> arguments,
+                                                        final SelectionSet selectionSet,
+                                                        final IncrementalDelivery.StreamedField streamedField) {
+        final int chunkSize = streamedField.getChunkSize();
+        if (streamedField.requiresIterator()) {
+            final Map<String, Comparable<?>> argumentsMap = convertArgumentsForGraph(arguments, resolution.variables);
+            streamedField.open(findModels(type, argumentsMap, WhereFilter.parse(arguments, resolution.variables)));
+        }
+        final Iterator<? extends MVStoreModel> iterator = streamedField.getIterator();
+        final ResultSelector selector = new ResultSelector(resolution, selectionSet);
+        for (int i = 0; i < chunkSize && iterator.hasNext(); i++) {
+            resolution.deadline.check();
+            selector.add(iterator.next());
+        }
+        final List<Map<String, Object>> results = selector.finish();
+        streamedField.advance(results.size());
+        return results;
+    }
+
+    private Object getObject(final Resolution resolution, final QueryPlanner.TypeDescriptor type,
+                             final List<Argument> arguments, final SelectionSet selectionSet) {
+        if (type.isConnection)
+            return getConnection(resolution, type, arguments, selectionSet);
+        final Map<String, Comparable<?>> argumentsMap = convertArgumentsForGraph(arguments, resolution.variables);
+        if (type.isNode || type.isEdge) {
+            final WhereFilter where = WhereFilter.parse(arguments, resolution.variables);
+            return selectResults(resolution, selectionSet, findModels(type, argumentsMap, where));
+        } else if (type.type instanceof GraphQLInterfaceType) {
+            if ("Node".equals(type.name)) {
                 if (argumentsMap.size() == 1 && argumentsMap.containsKey(Node.ID_FIELD)) {
                     final long id = getLongProperty(argumentsMap, Node.ID_FIELD);
-                    return selectResults(schema, selectionSet, graph.getNode(id), variables);
+                    return selectResult(resolution, selectionSet, graph.getNode(id));
                 }
-                final List<Object> result = new ArrayList<>();
-                for (final Node node : graph.findNodes(argumentsMap))
-                    result.add(selectResults(schema, selectionSet, node, variables));
-                return result;
-            } else if ("Edge".equals(type.getName())) {
+                return selectResults(resolution, selectionSet, graph.findNodes(argumentsMap));
+            } else if ("Edge".equals(type.name)) {
                 if (argumentsMap.size() == 1 && argumentsMap.containsKey(Edge.ID_FIELD)) {
                     final long id = getLongProperty(argumentsMap, Edge.ID_FIELD);
-                    return selectResults(schema, selectionSet, graph.getEdge(id), variables);
+                    return selectResult(resolution, selectionSet, graph.getEdge(id));
+                }
+                return selectResults(resolution, selectionSet, graph.findEdges(argumentsMap));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the neighborhood and shortest path fields. The traversal only collects the IDs, the models are loaded
+     * when the selected node and edge lists are resolved, each once regardless of how often it was reached.
+     */
+    private Map<String, Object> traverse(final Resolution resolution, final DataFetchingEnvironment environment) {
+        final GraphTraversal traversal = new GraphTraversal(graph, getEdgeLabels(resolution.types,
+                                                                                 environment.getArgument("edgeLabels")),
+                                                            GraphTraversal.Direction.valueOf(
+                                                                    environment.getArgument("direction")),
+                                                            resolution.deadline);
+        final GraphTraversal.Result traversalResult;
+        if (GraphQLSchemaWriter.NEIGHBORHOOD_FIELD.equals(environment.getFieldDefinition().getName())) {
+            final long startId = getIdArgument(environment, "_id");
+            checkNodeExists(startId);
+            traversalResult = traversal.getNeighborhood(startId, getTraversalDepth(environment, "depth"));
+        } else {
+            final long fromId = getIdArgument(environment, "fromId");
+            final long toId = getIdArgument(environment, "toId");
+            checkNodeExists(fromId);
+            checkNodeExists(toId);
+            traversalResult = traversal.getShortestPath(fromId, toId, getTraversalDepth(environment, "maxDepth"));
+            if (traversalResult == null)
+                return null;
+        }
+        final Map<String, Object> result = new HashMap<>();
+        final String typeName = GraphQLTypeUtil.unwrapAll(environment.getFieldType()).getName();
+        result.put(QueryPlanner.TYPENAME_FIELD, typeName);
+        selectTraversalResult(resolution, environment.getMergedField().getSingleField().getSelectionSet(), typeName,
+                              traversalResult, result);
+        return result;
+    }
+
+    private void checkNodeExists(final long nodeId) {
+        if (graph.getNode(nodeId) == null)
+            throw new GraphQLException("Node '" + nodeId + "' does not exist");
+    }
+
+    private void selectTraversalResult(final Resolution resolution, final SelectionSet selectionSet,
+                                       final String typeName, final GraphTraversal.Result traversalResult,
+                                       final Map<String, Object> result) {
+        for (final Selection<?> selection : selectionSet.getSelections()) {
+            if (selection instanceof Field) {
+                final Field field = (Field) selection;
+                if ("length".equals(field.getName()))
+                    result.put(field.getResultKey(), traversalResult.edgeIds.length);
+                else if ("nodes".equals(field.getName()))
+                    result.put(field.getResultKey(), selectResults(resolution, field.getSelectionSet(),
+                                                                   getModels(traversalResult.nodeIds, true)));
+                else if ("edges".equals(field.getName()))
+                    result.put(field.getResultKey(), selectResults(resolution, field.getSelectionSet(),
+                                                                   getModels(traversalResult.edgeIds, false)));
+            } else if (selection instanceof InlineFragment) {
+                final InlineFragment fragment = (InlineFragment) selection;
+                if (fragment.getTypeCondition() == null || fragment.getTypeCondition().getName().equals(typeName))
+                    selectTraversalResult(resolution, fragment.getSelectionSet(), typeName, traversalResult, result);
+            } else if (selection instanceof FragmentSpread) {
+                final FragmentDefinition fragment = resolution.fragments.get(((FragmentSpread) selection).getName());
+                if (fragment != null && fragment.getTypeCondition().getName().equals(typeName))
+                    selectTraversalResult(resolution, fragment.getSelectionSet(), typeName, traversalResult, result);
+            } else if (LOGGER.isErrorEnabled())
+                LOGGER.error("Failed to select results for selection '" + selection + "'");
+        }
+    }
+
+    /**
+     * Translates the edge labels, given either as GraphQL type names or as graph labels, into graph labels.
+     */
+    private static String[] getEdgeLabels(final QueryPlanner.TypeTable types, final List<String> labels) {
+        if (labels == null)
+            return null;
+        final String[] result = new String[labels.size()];
+        for (int i = 0; i < result.length; i++) {
+            final QueryPlanner.TypeDescriptor type = types.get(labels.get(i));
+            result[i] = type != null && type.isEdge ? type.graphLabel : labels.get(i);
+        }
+        return result;
+    }
+
+    private static int getTraversalDepth(final DataFetchingEnvironment environment, final String name) {
+        final int depth = environment.getArgument(name);
+        if (depth < 0)
+            throw new GraphQLException("Argument '" + name + "' must not be negative");
+        return depth;
+    }
+
+    private static long getIdArgument(final DataFetchingEnvironment environment, final String name) {
+        final String id = environment.getArgument(name);
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            throw new GraphQLException("Argument '" + name + "' is not a valid ID");
+        }
+    }
+
+    private Iterable<MVStoreModel> getModels(final long[] ids, final boolean nodes) {
+        return () -> new Iterator<MVStoreModel>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < ids.length;
+            }
+
+            @Override
+            public MVStoreModel next() {
+                final long id = ids[index++];
+                return nodes ? graph.getNode(id) : graph.getEdge(id);
+            }
+        };
+    }
+
+    /**
+     * Resolves one page of a connection. The graph iterator is only advanced until the page is full, so the memory
+     * needed is bounded by the page size instead of the label cardinality.
+     */
+    private Map<String, Object> getConnection(final Resolution resolution,
+                                              final QueryPlanner.TypeDescriptor connectionType,
+                                              final List<Argument> arguments, final SelectionSet selectionSet) {
+        final Map<String, Comparable<?>> argumentsMap = convertArgumentsForGraph(arguments, resolution.variables);
+        final int first = getPageSize(argumentsMap.remove(FIRST_ARGUMENT));
+        final PageCursor after = PageCursor.decode((String) argumentsMap.remove(AFTER_ARGUMENT));
+        final QueryPlanner.TypeDescriptor type = connectionType.fields.get("edges").target.fields.get("node").target;
+        final WhereFilter where = WhereFilter.parse(arguments, resolution.variables);
+        final WhereFilter.FilteredIterator<? extends MVStoreModel> iterator = findModels(type, argumentsMap, where);
+        long offset = 0;
+        final ResultSelector selector = new ResultSelector(resolution, planner.getConnectionNodeSelectionSet(
+                selectionSet));
+        long[] ids = new long[Math.min(first, 64)];
+        int count = 0;
+        final boolean hasNextPage;
+        try {
+            if (after != null) {
+                for (; offset < after.offset - 1 && iterator.hasNext(); offset++) {
+                    resolution.deadline.check();
+                    iterator.next();
                 }
-                final List<Object> result = new ArrayList<>();
-                for (final Edge edge : graph.findEdges(argumentsMap))
-                    result.add(selectResults(schema, selectionSet, edge, variables));
-                return result;
+                if (!iterator.hasNext() || iterator.next().getId() != after.id)
+                    throw new GraphQLException("Cursor '" + after.encode() + "' does not match the graph");
+                offset++;
+            }
+            while (count < first && iterator.hasNext()) {
+                resolution.deadline.check();
+                final MVStoreModel model = iterator.next();
+                if (count == ids.length)
+                    ids = Arrays.copyOf(ids, ids.length * 2);
+                ids[count++] = model.getId();
+                selector.add(model);
+            }
+            hasNextPage = iterator.hasNext();
+        } finally {
+            iterator.close();
+        }
+        final List<Map<String, Object>> nodeResults = selector.finish();
+        final List<Map<String, Object>> edges = new ArrayList<>(count);
+        String endCursor = after != null ? after.encode() : null;
+        for (int i = 0; i < count; i++) {
+            endCursor = new PageCursor(offset + i + 1, ids[i]).encode();
+            final Map<String, Object> edge = new HashMap<>();
+            edge.put("cursor", endCursor);
+            edge.put("node", nodeResults.get(i));
+            edges.add(edge);
+        }
+        final Map<String, Object> pageInfo = new HashMap<>();
+        pageInfo.put("hasNextPage", hasNextPage);
+        pageInfo.put("endCursor", endCursor);
+        final Map<String, Object> result = new HashMap<>();
+        result.put(QueryPlanner.TYPENAME_FIELD, connectionType.name);
+        result.put("edges", edges);
+        result.put("pageInfo", pageInfo);
+        return result;
+    }
+
+    /**
+     * Counts or aggregates the models matching the arguments while they are streamed from the graph. Unfiltered counts
+     * of a label are answered from the statistics stored in the schema without touching the graph.
+     */
+    private Object aggregate(final Resolution resolution, final QueryPlanner.FieldDescriptor descriptor,
+                             final List<Argument> arguments, final Map<String, Comparable<?>> argumentsMap) {
+        final WhereFilter where = WhereFilter.parse(arguments, resolution.variables);
+        final boolean isCount = descriptor.kind == QueryPlanner.FieldKind.COUNT;
+        if (isCount && argumentsMap.isEmpty() && where == WhereFilter.NONE && descriptor.target.count >= 0)
+            return descriptor.target.count;
+        final Aggregation aggregation = isCount ? null : new Aggregation(descriptor.aggregateValueFields,
+                                                                         getGroupKey(arguments, resolution.variables));
+        long count = 0;
+        try (final WhereFilter.FilteredIterator<? extends MVStoreModel> iterator = findModels(descriptor.target,
+                                                                                              argumentsMap, where)) {
+            while (iterator.hasNext()) {
+                resolution.deadline.check();
+                final MVStoreModel model = iterator.next();
+                if (aggregation != null)
+                    aggregation.add(model);
+                count++;
             }
         }
+        return aggregation != null ? aggregation.toResult() : Aggregation.clampCount(count);
+    }
+
+    private String getGroupKey(final List<Argument> arguments, final Map<String, Object> variables) {
+        for (final Argument argument : arguments)
+            if (GraphQLSchemaWriter.GROUP_BY_ARGUMENT.equals(argument.getName())) {
+                if (argument.getValue() instanceof EnumValue)
+                    return ((EnumValue) argument.getValue()).getName();
+                if (argument.getValue() instanceof VariableReference)
+                    return (String) variables.get(((VariableReference) argument.getValue()).getName());
+            }
         return null;
     }
 
+    private WhereFilter.FilteredIterator<? extends MVStoreModel> findModels(final QueryPlanner.TypeDescriptor type,
+                                                                            final Map<String, Comparable<?>> arguments,
+                                                                            final WhereFilter where) {
+        final Predicate<String> isIndexed = key -> graph.isIndexed(type.isNode, type.graphLabel, key);
+        if (type.isNode)
+            return where.apply(arguments, properties -> graph.findNodes(type.graphLabel, properties), isIndexed);
+        return where.apply(arguments, properties -> graph.findEdges(type.graphLabel, properties), isIndexed);
+    }
+
+    private int getPageSize(final Comparable<?> value) {
+        if (value == null)
+            return GraphQLSchemaWriter.DEFAULT_PAGE_SIZE;
+        final int first = ((Number) value).intValue();
+        if (first < 0)
+            throw new GraphQLException("Argument 'first' must not be negative");
+        return first;
+    }
+
     private Map<String, Comparable<?>> convertArgumentsForGraph(final List<Argument> arguments,
-                                                                final Map<String, Comparable<?>> variables) {
+                                                                final Map<String, Object> variables) {
         final Map<String, Comparable<?>> result = new HashMap<>();
         for (final Argument argument : arguments) {
-            final String key = translatePropertyKey(argument.getName());
+            if (WhereFilter.WHERE_ARGUMENT.equals(argument.getName()) ||
+                GraphQLSchemaWriter.GROUP_BY_ARGUMENT.equals(argument.getName()))
+                continue;
+            final String key = QueryPlanner.translatePropertyKey(argument.getName());
             result.put(key, convertGraphQLValue(key, argument.getValue(), variables));
         }
         return result;
     }
 
-    private Comparable<?> convertGraphQLValue(final String key, final Value<?> value,
-                                              final Map<String, Comparable<?>> variables) {
+    static Comparable<?> convertGraphQLValue(final String key, final Value<?> value,
+                                             final Map<String, Object> variables) {
         if (value == null)
             return null;
         if (value instanceof StringValue)
@@ -122,100 +401,195 @@ final class GraphDataFetcher implements DataFetcher<Object> {
             return integer.intValue();
         }
         if (value instanceof VariableReference)
-            return variables.get(((VariableReference) value).getName());
+            return (Comparable<?>) variables.get(((VariableReference) value).getName());
         if (LOGGER.isErrorEnabled())
             LOGGER.error("Failed to convert value '" + value + "' to graph argument");
         return null;
     }
 
-    private String translatePropertyKey(final String key) {
-        if ("_id".equals(key) || "_to_id".equals(key) || "_from_id".equals(key) || "_label".equals(key) ||
-            "_mapped".equals(key))
-            return '_' + key;
-        return key;
+    private Map<String, Object> selectResult(final Resolution resolution, final SelectionSet selectionSet,
+                                             final MVStoreModel model) {
+        if (model == null)
+            return null;
+        final ResultSelector selector = new ResultSelector(resolution, selectionSet);
+        selector.add(model);
+        return selector.finish().get(0);
     }
 
-    private boolean typeHasInterface(final GraphQLImplementingType type, final String interfaceName) {
-        return type.getInterfaces().stream().anyMatch(i -> interfaceName.equals(i.getName()));
+    private List<Map<String, Object>> selectResults(final Resolution resolution, final SelectionSet selectionSet,
+                                                    final Iterable<? extends MVStoreModel> models) {
+        final ResultSelector selector = new ResultSelector(resolution, selectionSet);
+        for (final MVStoreModel model : models) {
+            resolution.deadline.check();
+            selector.add(model);
+        }
+        return selector.finish();
     }
 
-    private String getTypeNameOrGraphLabel(final GraphQLImplementingType type) {
-        if (type instanceof GraphQLObjectType) {
-            final GraphQLObjectType objectType = (GraphQLObjectType) type;
-            final GraphQLAppliedDirective directive = objectType.getAppliedDirective("GraphLabel");
-            if (directive != null)
-                return directive.getArgument("value").getValue();
+    private void selectFieldResult(final QueryPlanner.FieldPlan fieldPlan, final QueryPlanner.TypeDescriptor type,
+                                   final MVStoreModel model, final ResultRow result,
+                                   final Map<Field, RelationBatch> batches) {
+        switch (fieldPlan.descriptor.kind) {
+            case TYPENAME:
+                result.set(fieldPlan.slot, type.name);
+                break;
+            case PROPERTY:
+                result.set(fieldPlan.slot, model.getProperty(fieldPlan.descriptor.propertyKey));
+                break;
+            case RELATION:
+            case COUNT:
+            case AGGREGATE:
+                if (model instanceof Node)
+                    addToBatch(fieldPlan, false, result, model.getId(), batches);
+                else if (model instanceof Edge) {
+                    final Edge edge = (Edge) model;
+                    addToBatch(fieldPlan, true, result,
+                               fieldPlan.descriptor.followsTarget ? edge.getToId() : edge.getFromId(), batches);
+                }
+                break;
         }
-        return type.getName();
     }
 
-    private Map<String, Object> selectResults(final GraphQLSchema schema, final SelectionSet selectionSet,
-                                              final MVStoreModel model, final Map<String, Comparable<?>> variables) {
-        if (model == null)
-            return null;
-        final Map<String, Object> result = new HashMap<>();
-        result.put("__typename", getFixedLabel(model));
-        for (final Selection<?> selection : selectionSet.getSelections())
-            selectResult(schema, selection, model, result, variables);
-        return result;
+    private void addToBatch(final QueryPlanner.FieldPlan fieldPlan, final boolean targetsNodes,
+                            final ResultRow result, final long id, final Map<Field, RelationBatch> batches) {
+        RelationBatch batch = batches.get(fieldPlan.field);
+        if (batch == null) {
+            batch = new RelationBatch(fieldPlan, targetsNodes);
+            batches.put(fieldPlan.field, batch);
+        }
+        batch.add(result, fieldPlan.slot, id);
     }
 
-    private String getFixedLabel(final MVStoreModel model) {
-        return GraphSchema.BaseType.fixLabel(model.getProperty(LABEL_FIELD));
-    }
-
-    private void selectResult(final GraphQLSchema schema, final Selection<?> selection, final MVStoreModel model,
-                              final Map<String, Object> result, final Map<String, Comparable<?>> variables) {
-        if (selection instanceof Field)
-            selectFieldResult(schema, (Field) selection, model, result, variables);
-        else if (selection instanceof InlineFragment)
-            selectInlineFragmentResult(schema, (InlineFragment) selection, model, result, variables);
-        else if (LOGGER.isErrorEnabled())
-            LOGGER.error("Failed to select results for selection '" + selection + "'");
-    }
-
-    private void selectFieldResult(final GraphQLSchema schema, final Field field, final MVStoreModel model,
-                                   final Map<String, Object> result, final Map<String, Comparable<?>> variables) {
-        if ("__typename".equals(field.getName()))
-            result.put(field.getResultKey(), getFixedLabel(model));
-        else {
-            final GraphQLObjectType type = schema.getObjectType(getFixedLabel(model));
-            final GraphQLFieldDefinition definition = type.getFieldDefinition(field.getName());
-            final GraphQLType fieldType = unwrapType(definition.getType());
-            if (fieldType instanceof GraphQLScalarType)
-                result.put(field.getResultKey(), model.getProperty(translatePropertyKey(field.getName())));
-            else if (fieldType instanceof GraphQLImplementingType) {
-                final GraphQLImplementingType implementingType = (GraphQLImplementingType) fieldType;
-                if (model instanceof Node) {
-                    result.put(field.getResultKey(),
-                               getObject(schema, implementingType, field.getArguments(), field.getSelectionSet(),
-                                         Edge.FROM_ID_FIELD, model.getId(), variables));
-                } else if (model instanceof Edge) {
-                    final Edge edge = (Edge) model;
-                    final long targetId = "_to".equals(field.getName()) ? edge.getToId() : edge.getFromId();
-                    result.put(field.getResultKey(),
-                               getObject(schema, implementingType, field.getArguments(), field.getSelectionSet(),
-                                         Node.ID_FIELD, targetId, variables));
+    private static Object getStructuralProperty(final String key, final long id, final String label,
+                                                final long fromId, final long toId) {
+        switch (key) {
+            case "__id":
+                return id;
+            case "__label":
+                return label;
+            case "__from_id":
+                return fromId;
+            case "__to_id":
+                return toId;
+            default:
+                return null;
+        }
+    }
+
+    private void resolveBatch(final Resolution resolution, final RelationBatch batch) {
+        final long start = System.nanoTime();
+        if (batch.plan.descriptor.kind == QueryPlanner.FieldKind.RELATION) {
+            resolveBatchResults(resolution, batch);
+            metrics.observeField("relation", batch.plan.descriptor.name, System.nanoTime() - start);
+        } else {
+            resolveAggregateBatchResults(resolution, batch);
+            metrics.observeField("aggregate", batch.plan.descriptor.name, System.nanoTime() - start);
+        }
+    }
+
+    private void resolveBatchResults(final Resolution resolution, final RelationBatch batch) {
+        final long[] ids = batch.getSortedDistinctIds();
+        final SelectionSet selectionSet = batch.plan.field.getSelectionSet();
+        final ResultSelector selector = new ResultSelector(resolution, selectionSet);
+        if (batch.targetsNodes) {
+            final Map<Long, Map<String, Object>> nodeResults = new HashMap<>();
+            for (final long id : ids) {
+                resolution.deadline.check();
+                final Node node = graph.getNode(id);
+                if (node != null)
+                    nodeResults.put(id, selector.add(node));
+            }
+            selector.finish();
+            for (int i = 0; i < batch.parentResults.size(); i++)
+                batch.parentResults.get(i).set(batch.slots[i], nodeResults.get(batch.ids[i]));
+        } else {
+            final Map<String, Comparable<?>> argumentsMap = convertArgumentsForGraph(
+                    batch.plan.field.getArguments(), resolution.variables);
+            final String label = batch.plan.descriptor.getTargetEdgeLabel();
+            final String adjacencyLabel = getAdjacencyLabel(label, argumentsMap);
+            final boolean useAdjacency = graph.hasAdjacencyIndex() && (argumentsMap.isEmpty() ||
+                                                                       adjacencyLabel != null);
+            final int[] offsets = new int[ids.length + 1];
+            for (int i = 0; i < ids.length; i++) {
+                int count = 0;
+                if (useAdjacency) {
+                    final AdjacencyIndex.Cursor cursor = graph.getOutgoingEdges(ids[i], adjacencyLabel);
+                    while (cursor.next()) {
+                        resolution.deadline.check();
+                        if (selector.addEdge(cursor.getEdgeId(), cursor.getLabel(), ids[i], cursor.getToId()) != null)
+                            count++;
+                    }
+                } else {
+                    argumentsMap.put(Edge.FROM_ID_FIELD, ids[i]);
+                    for (final Edge edge : label != null ? graph.findEdges(label, argumentsMap) : graph.findEdges(
+                            argumentsMap)) {
+                        resolution.deadline.check();
+                        selector.add(edge);
+                        count++;
+                    }
                 }
+                offsets[i + 1] = offsets[i] + count;
             }
+            final List<Map<String, Object>> results = selector.finish();
+            final Map<Long, List<Map<String, Object>>> edgeResults = new HashMap<>();
+            for (int i = 0; i < ids.length; i++)
+                edgeResults.put(ids[i], results.subList(offsets[i], offsets[i + 1]));
+            for (int i = 0; i < batch.parentResults.size(); i++)
+                batch.parentResults.get(i).set(batch.slots[i], edgeResults.get(batch.ids[i]));
         }
     }
 
-    private GraphQLType unwrapType(GraphQLType fieldType) {
-        while (fieldType instanceof GraphQLModifiedType)
-            fieldType = ((GraphQLModifiedType) fieldType).getWrappedType();
-        return fieldType;
+    /**
+     * Returns the label to restrict an adjacency index traversal to. The traversal is only possible if the edges are
+     * filtered by nothing but their label.
+     */
+    private static String getAdjacencyLabel(final String label, final Map<String, Comparable<?>> arguments) {
+        if (label != null)
+            return arguments.isEmpty() ? label : null;
+        if (arguments.size() == 1 && arguments.get(LABEL_FIELD) instanceof String)
+            return (String) arguments.get(LABEL_FIELD);
+        return null;
     }
 
-    private void selectInlineFragmentResult(final GraphQLSchema schema, final InlineFragment fragment,
-                                            final MVStoreModel model, final Map<String, Object> result,
-                                            final Map<String, Comparable<?>> variables) {
-        if (fragment.getTypeCondition().getName().equals(getFixedLabel(model))) {
-            final Map<String, Object> fragmentResults = selectResults(schema, fragment.getSelectionSet(), model,
-                                                                      variables);
-            for (final String key : fragmentResults.keySet())
-                result.put(key, fragmentResults.get(key));
+    /**
+     * Resolves the count and aggregate fields of edges per parent node. Unfiltered edges are read from the adjacency
+     * index like relation batches, so counts do not touch the graph and aggregates only load the edges themselves.
+     */
+    private void resolveAggregateBatchResults(final Resolution resolution, final RelationBatch batch) {
+        final List<Argument> arguments = batch.plan.field.getArguments();
+        final boolean useAdjacency = graph.hasAdjacencyIndex() && WhereFilter.parse(arguments, resolution.variables) ==
+                                                                  WhereFilter.NONE;
+        final Map<String, Comparable<?>> argumentsMap = new HashMap<>();
+        final Map<Long, Object> results = new HashMap<>();
+        for (final long id : batch.getSortedDistinctIds()) {
+            if (useAdjacency)
+                results.put(id, aggregateOutgoingEdges(resolution, batch.plan.descriptor, arguments, id));
+            else {
+                argumentsMap.put(Edge.FROM_ID_FIELD, id);
+                results.put(id, aggregate(resolution, batch.plan.descriptor, arguments, argumentsMap));
+            }
         }
+        for (int i = 0; i < batch.parentResults.size(); i++)
+            batch.parentResults.get(i).set(batch.slots[i], results.get(batch.ids[i]));
+    }
+
+    private Object aggregateOutgoingEdges(final Resolution resolution, final QueryPlanner.FieldDescriptor descriptor,
+                                          final List<Argument> arguments, final long nodeId) {
+        final Aggregation aggregation = descriptor.kind == QueryPlanner.FieldKind.COUNT ? null : new Aggregation(
+                descriptor.aggregateValueFields, getGroupKey(arguments, resolution.variables));
+        long count = 0;
+        final AdjacencyIndex.Cursor cursor = graph.getOutgoingEdges(nodeId, descriptor.target.graphLabel);
+        while (cursor.next()) {
+            resolution.deadline.check();
+            if (aggregation != null) {
+                final Edge edge = graph.getEdge(cursor.getEdgeId());
+                if (edge == null)
+                    continue;
+                aggregation.add(edge);
+            }
+            count++;
+        }
+        return aggregation != null ? aggregation.toResult() : Aggregation.clampCount(count);
     }
 
     private long getLongProperty(final Map<String, Comparable<?>> properties, final String key) {
@@ -224,4 +598,138 @@ final class GraphDataFetcher implements DataFetcher<Object> {
             return ((BigInteger) object).longValue();
         return (long) object;
     }
+
+    /**
+     * Selects the results for all models of one depth. Each model is projected into its result row as soon as it is
+     * read from the graph, so only the selected values are retained instead of the complete models. Relation fields
+     * are not resolved per model but collected into batches which are resolved breadth-first once all models of this
+     * depth were added.
+     */
+    private final class ResultSelector {
+        private final Resolution resolution;
+        private final SelectionSet selectionSet;
+        private final List<Map<String, Object>> results = new ArrayList<>();
+        private final Map<Field, RelationBatch> batches = new IdentityHashMap<>();
+        private QueryPlanner.TypeDescriptor type;
+        private QueryPlanner.SelectionPlan plan;
+
+        ResultSelector(final Resolution resolution, final SelectionSet selectionSet) {
+            this.resolution = resolution;
+            this.selectionSet = selectionSet;
+        }
+
+        ResultRow add(final MVStoreModel model) {
+            final QueryPlanner.TypeDescriptor modelType = resolution.types.getForGraphLabel(
+                    model.getProperty(LABEL_FIELD));
+            if (modelType != type) {
+                type = modelType;
+                plan = planner.getPlan(selectionSet, type, resolution.fragments);
+            }
+            final ResultRow result = new ResultRow(plan.layout);
+            result.set(0, type.name);
+            for (final QueryPlanner.FieldPlan fieldPlan : plan.fields)
+                selectFieldResult(fieldPlan, type, model, result, batches);
+            results.add(result);
+            return result;
+        }
+
+        /**
+         * Adds an edge read from the adjacency index. The edge is only loaded from the graph if the selection needs
+         * more than its structural properties.
+         */
+        ResultRow addEdge(final long id, final String label, final long fromId, final long toId) {
+            final QueryPlanner.TypeDescriptor edgeType = resolution.types.getForGraphLabel(label);
+            if (edgeType != type) {
+                type = edgeType;
+                plan = planner.getPlan(selectionSet, type, resolution.fragments);
+            }
+            if (plan.requiresModel) {
+                final Edge edge = graph.getEdge(id);
+                return edge != null ? add(edge) : null;
+            }
+            final ResultRow result = new ResultRow(plan.layout);
+            result.set(0, type.name);
+            for (final QueryPlanner.FieldPlan fieldPlan : plan.fields) {
+                if (fieldPlan.descriptor.kind == QueryPlanner.FieldKind.PROPERTY)
+                    result.set(fieldPlan.slot, getStructuralProperty(fieldPlan.descriptor.propertyKey, id, label,
+                                                                     fromId, toId));
+                else if (fieldPlan.descriptor.kind == QueryPlanner.FieldKind.RELATION)
+                    addToBatch(fieldPlan, true, result, fieldPlan.descriptor.followsTarget ? toId : fromId, batches);
+                else if (fieldPlan.descriptor.kind == QueryPlanner.FieldKind.TYPENAME)
+                    result.set(fieldPlan.slot, type.name);
+            }
+            results.add(result);
+            return result;
+        }
+
+        /**
+         * Resolves the collected relation batches. Batches of sibling fields fill different slots of the parent rows,
+         * so they are independent and resolved in parallel.
+         */
+        List<Map<String, Object>> finish() {
+            final List<Runnable> tasks = new ArrayList<>(batches.size());
+            for (final RelationBatch batch : batches.values())
+                tasks.add(() -> resolveBatch(resolution, batch));
+            resolution.scheduler.invokeAll(tasks);
+            return results;
+        }
+    }
+
+    /**
+     * State of one root field resolution shared by all depths.
+     */
+    private static final class Resolution {
+        final QueryPlanner.TypeTable types;
+        final Map<String, Object> variables;
+        final Map<String, FragmentDefinition> fragments;
+        final QueryDeadline deadline;
+        final FieldScheduler scheduler;
+
+        Resolution(final QueryPlanner.TypeTable types, final Map<String, Object> variables,
+                   final Map<String, FragmentDefinition> fragments, final QueryDeadline deadline,
+                   final FieldScheduler scheduler) {
+            this.types = types;
+            this.variables = variables;
+            this.fragments = fragments;
+            this.deadline = deadline;
+            this.scheduler = scheduler;
+        }
+    }
+
+    /**
+     * Collects all parent results of one depth requesting the same relation field together with the graph ID the
+     * relation has to be resolved for.
+     */
+    private static final class RelationBatch {
+        final QueryPlanner.FieldPlan plan;
+        final boolean targetsNodes;
+        final List<ResultRow> parentResults = new ArrayList<>();
+        long[] ids = new long[16];
+        int[] slots = new int[16];
+
+        RelationBatch(final QueryPlanner.FieldPlan plan, final boolean targetsNodes) {
+            this.plan = plan;
+            this.targetsNodes = targetsNodes;
+        }
+
+        void add(final ResultRow parentResult, final int slot, final long id) {
+            if (parentResults.size() == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+                slots = Arrays.copyOf(slots, slots.length * 2);
+            }
+            ids[parentResults.size()] = id;
+            slots[parentResults.size()] = slot;
+            parentResults.add(parentResult);
+        }
+
+        long[] getSortedDistinctIds() {
+            final long[] sorted = Arrays.copyOf(ids, parentResults.size());
+            Arrays.sort(sorted);
+            int count = 0;
+            for (int i = 0; i < sorted.length; i++)
+                if (i == 0 || sorted[i] != sorted[count - 1])
+                    sorted[count++] = sorted[i];
+            return Arrays.copyOf(sorted, count);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package de.unibi.agbi.biodwh2.graphql.server;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import de.unibi.agbi.biodwh2.core.model.graph.Graph;
 import de.unibi.agbi.biodwh2.core.net.BioDWH2Updater;
 import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
@@ -9,7 +10,10 @@ import de.unibi.agbi.biodwh2.graphql.server.model.CmdArgs;
 import de.unibi.agbi.biodwh2.graphql.server.model.RequestBody;
 import graphql.ExecutionInput;
 import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
 import graphql.GraphQL;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.instrumentation.ChainedInstrumentation;
 import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.RuntimeWiring;
 import graphql.schema.idl.SchemaGenerator;
@@ -18,6 +22,7 @@ import graphql.schema.idl.TypeDefinitionRegistry;
 import io.javalin.Javalin;
 import io.javalin.core.JavalinConfig;
 import io.javalin.http.Context;
+import io.javalin.http.HttpCode;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,20 +32,39 @@ import java.awt.*;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.stream.Collectors;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class GraphQLServer {
     private static final Logger LOGGER = LoggerFactory.getLogger(GraphQLServer.class);
     private static final String DATABASE_FILE_NAME = "mapped." + Graph.EXTENSION;
     private static final String SCHEMA_FILE_NAME = "mapped." + GraphQLSchemaWriter.EXTENSION;
+    private static final long ASYNC_TIMEOUT_GRACE_MILLIS = 5000;
 
-    private static GraphQL graphQL;
+    private GraphQL graphQL;
+    private QueryDocumentCache documentCache;
+    private ResponseCache responseCache;
+    private QueryExecutor queryExecutor;
+    private ServerMetrics metrics;
+    private ModelCache modelCache;
+    private PersistedQueryStore persistedQueries;
+    private HttpCaching httpCaching;
+    private int maxBatchSize;
+    private long maxBatchCost;
+    private RequestCapture requestCapture;
+    private Graph graph;
+    private Javalin app;
 
     private GraphQLServer() {
     }
@@ -50,6 +74,33 @@ public class GraphQLServer {
         new GraphQLServer().run(commandLine);
     }
 
+    /**
+     * Starts a server for a workspace without checking for updates or opening a browser, so it can be embedded into
+     * tools and benchmarks. The arguments are the same as for the command line, a port of 0 selects a free port.
+     */
+    public static GraphQLServer startEmbedded(final String... args) {
+        final CmdArgs commandLine = parseCommandLine(args);
+        final GraphQLServer server = new GraphQLServer();
+        if (commandLine.start == null || !server.startWorkspaceServer(commandLine, false))
+            throw new IllegalArgumentException("Workspace path '" + commandLine.start + "' was not found");
+        return server;
+    }
+
+    public int getPort() {
+        return app.port();
+    }
+
+    /**
+     * Stops the HTTP server and releases the executors, the request capture and the graph.
+     */
+    public void stop() {
+        app.stop();
+        queryExecutor.shutdown();
+        if (requestCapture != null)
+            requestCapture.close();
+        graph.close();
+    }
+
     private static CmdArgs parseCommandLine(final String... args) {
         final CmdArgs result = new CmdArgs();
         final CommandLine cmd = new CommandLine(result);
@@ -60,36 +111,63 @@ public class GraphQLServer {
     private void run(final CmdArgs commandLine) {
         BioDWH2Updater.checkForUpdate("BioDWH2-GraphQL-Server",
                                       "https://api.github.com/repos/BioDWH2/BioDWH2-GraphQL-Server/releases");
-        if (commandLine.start != null)
-            startWorkspaceServer(commandLine);
-        else
+        if (commandLine.start == null || !startWorkspaceServer(commandLine, true))
             printHelp(commandLine);
     }
 
-    private void startWorkspaceServer(final CmdArgs commandLine) {
+    private boolean startWorkspaceServer(final CmdArgs commandLine, final boolean interactive) {
         final String workspacePath = commandLine.start;
-        if (!verifyWorkspaceExists(workspacePath)) {
-            printHelp(commandLine);
-            return;
-        }
+        if (!verifyWorkspaceExists(workspacePath))
+            return false;
         final Path graphqlPath = Paths.get(workspacePath, "graphql");
         final int port = commandLine.port != null ? commandLine.port : 8090;
         LOGGER.info("Load database...");
-        final String workspaceGraphHash = getWorkspaceGraphHash(workspacePath);
-        final Graph graph = new Graph(Paths.get(workspacePath, "sources", DATABASE_FILE_NAME), true, true);
+        final String workspaceGraphHash = getWorkspaceGraphHash(workspacePath, commandLine.fullHash);
+        graph = new Graph(Paths.get(workspacePath, "sources", DATABASE_FILE_NAME), true, true);
         updateSchemaIfNecessary(graphqlPath, graph, workspaceGraphHash);
+        final AdjacencyIndex adjacencyIndex = loadAdjacencyIndex(graphqlPath, graph, workspaceGraphHash);
         LOGGER.info("Setup GraphQL...");
         final SchemaParser schemaParser = new SchemaParser();
         final File schemaFile = Paths.get(graphqlPath.toString(), SCHEMA_FILE_NAME).toFile();
         final TypeDefinitionRegistry typeRegistry = schemaParser.parse(schemaFile);
         final SchemaGenerator schemaGenerator = new SchemaGenerator();
-        final RuntimeWiring wiring = buildRuntimeWiring(graph);
+        metrics = new ServerMetrics();
+        if (commandLine.modelCacheSize > 0)
+            modelCache = new ModelCache(commandLine.modelCacheSize * 1024L * 1024L);
+        final GraphAccessor graphAccessor = new GraphAccessor(graph, metrics, modelCache, adjacencyIndex);
+        final RuntimeWiring wiring = buildRuntimeWiring(graphAccessor);
         final GraphQLSchema schema = schemaGenerator.makeExecutableSchema(typeRegistry, wiring);
-        graphQL = GraphQL.newGraphQL(schema).build();
+        documentCache = new QueryDocumentCache(commandLine.queryCacheSize);
+        final QueryCostInstrumentation costInstrumentation = new QueryCostInstrumentation(commandLine.maxQueryCost,
+                                                                                          commandLine.maxQueryDepth,
+                                                                                          graphAccessor::isIndexed);
+        final ChainedInstrumentation instrumentation = new ChainedInstrumentation(
+                Arrays.asList(costInstrumentation, new MetricsInstrumentation(metrics)));
+        graphQL = GraphQL.newGraphQL(schema).preparsedDocumentProvider(documentCache).instrumentation(instrumentation)
+                         .build();
+        queryExecutor = new QueryExecutor(graphQL, commandLine.queryThreads, commandLine.maxInFlight,
+                                          commandLine.queryTimeout * 1000L, commandLine.queryParallelism);
+        if (commandLine.responseCacheSize > 0)
+            responseCache = new ResponseCache(workspaceGraphHash, commandLine.responseCacheSize * 1024L * 1024L);
+        persistedQueries = new PersistedQueryStore(commandLine.persistedQueryCacheSize);
+        httpCaching = new HttpCaching(workspaceGraphHash, commandLine.cacheMaxAge);
+        maxBatchSize = commandLine.maxBatchSize;
+        maxBatchCost = commandLine.maxBatchCost;
+        if (commandLine.captureFile != null)
+            requestCapture = RequestCapture.open(Paths.get(commandLine.captureFile), commandLine.captureSampleRate);
+        registerMetricGauges();
         LOGGER.info("Start server...");
-        final Javalin app = Javalin.create(this::configureJavalin).start(port);
-        app.post("/", GraphQLServer::handleRootPost);
-        openBrowser(port);
+        app = Javalin.create(this::configureJavalin).start(port);
+        app.post("/", this::handleRootPost);
+        app.get("/", this::handleRootGet);
+        app.get("/metrics", this::handleMetricsGet);
+        if (commandLine.maxExports > 0) {
+            final NdjsonExporter exporter = new NdjsonExporter(graphAccessor, schema, metrics, commandLine.maxExports);
+            app.get("/export/{label}", exporter::handle);
+        }
+        if (interactive)
+            openBrowser(port);
+        return true;
     }
 
     private boolean verifyWorkspaceExists(final String workspacePath) {
@@ -103,9 +181,12 @@ public class GraphQLServer {
         return true;
     }
 
-    private String getWorkspaceGraphHash(final String workspacePath) {
+    private String getWorkspaceGraphHash(final String workspacePath, final boolean fullHash) {
+        final String databaseFilePath = Paths.get(workspacePath, "sources", DATABASE_FILE_NAME).toString();
         try {
-            return HashUtils.getMd5HashFromFile(Paths.get(workspacePath, "sources", DATABASE_FILE_NAME).toString());
+            if (fullHash)
+                return HashUtils.getMd5HashFromFile(databaseFilePath);
+            return HashUtils.getFingerprintFromFile(databaseFilePath);
         } catch (IOException e) {
             if (LOGGER.isWarnEnabled())
                 LOGGER.warn("Failed to check hash of workspace mapped graph", e);
@@ -119,10 +200,11 @@ public class GraphQLServer {
                 Files.createDirectory(graphqlPath);
             final Path hashFilePath = Paths.get(graphqlPath.toString(), "checksum.txt");
             final Path schemaFilePath = Paths.get(graphqlPath.toString(), SCHEMA_FILE_NAME);
+            final String schemaHash = workspaceGraphHash + ':' + GraphQLSchemaWriter.VERSION;
             boolean upToDate = false;
             if (Files.exists(hashFilePath) && Files.exists(schemaFilePath)) {
                 final String storedHash = new String(Files.readAllBytes(hashFilePath)).trim();
-                upToDate = workspaceGraphHash.equals(storedHash);
+                upToDate = schemaHash.equals(storedHash);
             }
             if (!upToDate) {
                 if (LOGGER.isInfoEnabled())
@@ -130,7 +212,7 @@ public class GraphQLServer {
                 final GraphSchema schema = new GraphSchema(graph);
                 new GraphQLSchemaWriter(schema).save(schemaFilePath.toString());
                 final FileWriter writer = new FileWriter(hashFilePath.toFile());
-                writer.write(workspaceGraphHash);
+                writer.write(schemaHash);
                 writer.close();
             }
         } catch (IOException e) {
@@ -139,17 +221,75 @@ public class GraphQLServer {
         }
     }
 
-    private static RuntimeWiring buildRuntimeWiring(final Graph graph) {
-        return RuntimeWiring.newRuntimeWiring().wiringFactory(new GraphWiringFactory(graph)).build();
+    private AdjacencyIndex loadAdjacencyIndex(final Path graphqlPath, final Graph graph,
+                                              final String workspaceGraphHash) {
+        try {
+            return AdjacencyIndex.load(Paths.get(graphqlPath.toString(), AdjacencyIndex.FILE_NAME), graph,
+                                       workspaceGraphHash);
+        } catch (IOException e) {
+            if (LOGGER.isWarnEnabled())
+                LOGGER.warn("Failed to load adjacency index, traversals fall back to graph lookups", e);
+            return null;
+        }
+    }
+
+    private RuntimeWiring buildRuntimeWiring(final GraphAccessor graph) {
+        return RuntimeWiring.newRuntimeWiring().wiringFactory(new GraphWiringFactory(graph, metrics)).build();
+    }
+
+    private void registerMetricGauges() {
+        metrics.registerCounter("document_cache_hits", "Parsed and validated query document cache hits",
+                                documentCache::getHitCount);
+        metrics.registerCounter("document_cache_misses", "Parsed and validated query document cache misses",
+                                documentCache::getMissCount);
+        metrics.registerGauge("document_cache_size", "Number of cached query documents", documentCache::getSize);
+        if (responseCache != null) {
+            metrics.registerCounter("response_cache_hits", "Response cache hits", responseCache::getHitCount);
+            metrics.registerCounter("response_cache_misses", "Response cache misses", responseCache::getMissCount);
+            metrics.registerGauge("response_cache_size_bytes", "Size of all cached responses",
+                                  responseCache::getWeightedSize);
+        }
+        if (modelCache != null) {
+            metrics.registerCounter("model_cache_hits", "Decoded node and edge cache hits", modelCache::getHitCount);
+            metrics.registerCounter("model_cache_misses", "Decoded node and edge cache misses",
+                                    modelCache::getMissCount);
+            metrics.registerGauge("model_cache_size_bytes", "Estimated size of all cached nodes and edges",
+                                  modelCache::getWeightedSize);
+        }
+        metrics.registerCounter("persisted_query_hits", "Automatic persisted query hits",
+                                persistedQueries::getHitCount);
+        metrics.registerCounter("persisted_query_misses", "Automatic persisted query misses",
+                                persistedQueries::getMissCount);
+        metrics.registerGauge("persisted_query_size", "Number of stored automatic persisted queries",
+                              persistedQueries::getSize);
+        if (requestCapture != null)
+            metrics.registerCounter("request_capture_dropped", "Sampled requests dropped by the request capture",
+                                    requestCapture::getDroppedCount);
+        metrics.registerGauge("queries_in_flight", "Number of queries currently queued or executing",
+                              queryExecutor::getInFlightCount);
     }
 
     private void configureJavalin(final JavalinConfig config) {
         config.defaultContentType = "application/json";
         config.enableCorsForAllOrigins();
         config.showJavalinBanner = false;
+        if (queryExecutor.getTimeoutMillis() > 0)
+            config.asyncRequestTimeout = queryExecutor.getTimeoutMillis() + ASYNC_TIMEOUT_GRACE_MILLIS;
+    }
+
+    private void handleMetricsGet(final Context ctx) throws IOException {
+        ctx.contentType(ServerMetrics.CONTENT_TYPE);
+        final OutputStreamWriter writer = new OutputStreamWriter(ctx.res.getOutputStream(), StandardCharsets.UTF_8);
+        metrics.write(writer);
+        writer.flush();
     }
 
-    private static void handleRootPost(final Context ctx) throws IOException {
+    private void handleRootPost(final Context ctx) throws IOException {
+        final long start = System.nanoTime();
+        if (isBatchRequest(ctx.body())) {
+            handleBatch(ctx, start);
+            return;
+        }
         final RequestBody body;
         try {
             body = ctx.bodyValidator(RequestBody.class).get();
@@ -157,26 +297,318 @@ public class GraphQLServer {
             ctx.result("");
             return;
         }
+        handleQuery(ctx, body, false, start);
+    }
+
+    private static boolean isBatchRequest(final String body) {
+        for (int i = 0; i < body.length(); i++)
+            if (!Character.isWhitespace(body.charAt(i)))
+                return body.charAt(i) == '[';
+        return false;
+    }
+
+    /**
+     * Handles a JSON array of operations. All operations are executed concurrently on the query executor and their
+     * results are written as an array in request order. Failing operations only produce an error entry of their own.
+     */
+    private void handleBatch(final Context ctx, final long start) throws IOException {
+        final JsonNode bodies;
+        try {
+            bodies = JsonResponseWriter.MAPPER.readTree(ctx.body());
+        } catch (IOException ex) {
+            ctx.status(HttpCode.BAD_REQUEST);
+            JsonResponseWriter.writeError(ctx, "Invalid batch request body");
+            metrics.observeRequest("invalid", System.nanoTime() - start, -1);
+            return;
+        }
+        if (bodies.size() == 0 || bodies.size() > maxBatchSize) {
+            ctx.status(HttpCode.BAD_REQUEST);
+            JsonResponseWriter.writeError(ctx, "Batch requests have to contain between 1 and " + maxBatchSize +
+                                               " operations");
+            metrics.observeRequest("invalid", System.nanoTime() - start, -1);
+            return;
+        }
+        final BatchOperation[] operations = new BatchOperation[bodies.size()];
+        int executions = 0;
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = prepareBatchOperation(i, bodies.get(i));
+            if (operations[i].result == null && operations[i].cachedResponse == null)
+                executions++;
+        }
+        if (executions > 0 && !queryExecutor.tryAcquire(executions)) {
+            ctx.status(HttpCode.SERVICE_UNAVAILABLE);
+            ctx.header("Retry-After", "1");
+            JsonResponseWriter.writeError(ctx, "Too many queries are currently executed, please retry later");
+            metrics.observeRequest("rejected", System.nanoTime() - start, -1);
+            return;
+        }
+        final QueryCostBudget budget = maxBatchCost > 0 ? new QueryCostBudget(maxBatchCost) : null;
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[executions];
+        for (int i = 0, j = 0; i < operations.length; i++) {
+            if (operations[i].result != null || operations[i].cachedResponse != null)
+                continue;
+            final ExecutionInput.Builder builder = createExecutionInput(operations[i].body);
+            if (budget != null)
+                builder.graphQLContext(context -> context.of(QueryCostBudget.class, budget));
+            operations[i].future = queryExecutor.execute(builder);
+            futures[j++] = operations[i].future;
+        }
+        ctx.future(CompletableFuture.allOf(futures).handle((ignored, throwable) -> operations), result -> {
+            try {
+                writeBatchResults(ctx, operations, start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Prepares a single operation of a batch. Elements which are not valid request objects only produce an error entry
+     * of their own.
+     */
+    private BatchOperation prepareBatchOperation(final int index, final JsonNode node) {
+        if (!node.isObject()) {
+            final BatchOperation operation = new BatchOperation(null);
+            operation.result = createErrorResult("Batch operation " + index + " is not a JSON object", null);
+            return operation;
+        }
+        final RequestBody body;
+        try {
+            body = JsonResponseWriter.MAPPER.treeToValue(node, RequestBody.class);
+        } catch (JsonProcessingException e) {
+            final BatchOperation operation = new BatchOperation(null);
+            operation.result = createErrorResult("Batch operation " + index + " is not a valid request", null);
+            return operation;
+        }
+        final BatchOperation operation = new BatchOperation(body);
+        try {
+            if (!resolvePersistedQuery(body)) {
+                operation.result = createErrorResult(PersistedQueryStore.NOT_FOUND_MESSAGE,
+                                                     PersistedQueryStore.NOT_FOUND_CODE);
+                return operation;
+            }
+        } catch (IllegalArgumentException e) {
+            operation.result = createErrorResult(e.getMessage(), null);
+            return operation;
+        }
         if (StringUtils.isAllBlank(body.query)) {
-            ctx.result("");
+            operation.result = createErrorResult("Missing query", null);
+            return operation;
+        }
+        if (requestCapture != null)
+            requestCapture.capture(body);
+        if (responseCache != null) {
+            operation.cacheKey = responseCache.createKey(body.query, body.operationName, body.variables);
+            if (operation.cacheKey != null)
+                operation.cachedResponse = responseCache.get(operation.cacheKey);
+        }
+        return operation;
+    }
+
+    private static ExecutionResult createErrorResult(final String message, final String code) {
+        final GraphqlErrorBuilder<?> error = GraphqlErrorBuilder.newError().message(message);
+        if (code != null)
+            error.extensions(Collections.singletonMap("code", code));
+        return ExecutionResultImpl.newExecutionResult().addError(error.build()).build();
+    }
+
+    private void writeBatchResults(final Context ctx, final BatchOperation[] operations,
+                                   final long start) throws IOException {
+        ctx.contentType("application/json");
+        final ResponseStream outputStream = ResponseStream.open(ctx);
+        outputStream.write('[');
+        for (int i = 0; i < operations.length; i++) {
+            if (i > 0)
+                outputStream.write(',');
+            writeBatchResult(outputStream, operations[i]);
+        }
+        outputStream.write(']');
+        outputStream.finish();
+        metrics.observeRequest("batch", System.nanoTime() - start, outputStream.getCount());
+    }
+
+    private void writeBatchResult(final OutputStream outputStream,
+                                  final BatchOperation operation) throws IOException {
+        if (operation.cachedResponse != null) {
+            outputStream.write(operation.cachedResponse);
             return;
         }
-        final String query = Arrays.stream(body.query.split("\n")).filter(l -> !isLineEmptyOrComment(l)).collect(
-                Collectors.joining("\n"));
+        ExecutionResult result = operation.result;
+        if (result == null) {
+            if (operation.future.isCompletedExceptionally() || !operation.future.isDone())
+                result = createErrorResult("Query execution failed", null);
+            else
+                result = operation.future.join();
+        }
+        if (operation.cacheKey != null && result.getErrors().isEmpty()) {
+            final ResponseCache.CapturingOutputStream capture = responseCache.capture(outputStream);
+            JsonResponseWriter.write(capture, result);
+            responseCache.put(operation.cacheKey, capture);
+        } else
+            JsonResponseWriter.write(outputStream, result);
+    }
+
+    /**
+     * Resolves the query of requests using automatic persisted queries. Returns false if the query hash is unknown.
+     */
+    private boolean resolvePersistedQuery(final RequestBody body) {
+        final String persistedQueryHash = PersistedQueryStore.getHash(body.extensions);
+        if (persistedQueryHash != null)
+            body.query = persistedQueries.resolve(persistedQueryHash, body.query);
+        return persistedQueryHash == null || body.query != null;
+    }
+
+    private static ExecutionInput.Builder createExecutionInput(final RequestBody body) {
         final ExecutionInput.Builder builder = ExecutionInput.newExecutionInput();
-        builder.query(query);
+        builder.query(body.query);
         if (body.operationName != null)
             builder.operationName(body.operationName);
         if (body.variables != null)
             builder.variables(body.variables);
-        final ExecutionInput executionInput = builder.build();
-        final ExecutionResult executionResult = graphQL.execute(executionInput);
-        final ObjectMapper objectMapper = new ObjectMapper();
-        ctx.result(objectMapper.writeValueAsString(executionResult.toSpecification()));
+        return builder;
+    }
+
+    /**
+     * Handles queries sent as GET request parameters. Successful responses carry an ETag and Cache-Control header, so
+     * they can be cached and revalidated by clients and reverse proxies.
+     */
+    private void handleRootGet(final Context ctx) throws IOException {
+        final long start = System.nanoTime();
+        final RequestBody body = new RequestBody();
+        body.query = ctx.queryParam("query");
+        body.operationName = ctx.queryParam("operationName");
+        try {
+            body.variables = parseJsonParameter(ctx, "variables");
+            body.extensions = parseJsonParameter(ctx, "extensions");
+        } catch (IOException e) {
+            ctx.status(HttpCode.BAD_REQUEST);
+            JsonResponseWriter.writeError(ctx, e.getMessage());
+            metrics.observeRequest("invalid", System.nanoTime() - start, -1);
+            return;
+        }
+        handleQuery(ctx, body, true, start);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> parseJsonParameter(final Context ctx, final String name) throws IOException {
+        final String value = ctx.queryParam(name);
+        if (StringUtils.isBlank(value))
+            return null;
+        try {
+            return JsonResponseWriter.MAPPER.readValue(value, Map.class);
+        } catch (IOException e) {
+            throw new IOException("Invalid JSON object in parameter '" + name + "'", e);
+        }
+    }
+
+    private void handleQuery(final Context ctx, final RequestBody body, final boolean cacheable,
+                             final long start) throws IOException {
+        try {
+            if (!resolvePersistedQuery(body)) {
+                JsonResponseWriter.writeError(ctx, PersistedQueryStore.NOT_FOUND_MESSAGE,
+                                              PersistedQueryStore.NOT_FOUND_CODE);
+                metrics.observeRequest("persisted_query_not_found", System.nanoTime() - start, -1);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            ctx.status(HttpCode.BAD_REQUEST);
+            JsonResponseWriter.writeError(ctx, e.getMessage());
+            metrics.observeRequest("invalid", System.nanoTime() - start, -1);
+            return;
+        }
+        if (StringUtils.isAllBlank(body.query)) {
+            ctx.result("");
+            return;
+        }
+        if (requestCapture != null)
+            requestCapture.capture(body);
+        if (StringUtils.contains(ctx.header("Accept"), "multipart/mixed")) {
+            final IncrementalDelivery delivery = IncrementalDelivery.create(body.query, body.operationName,
+                                                                            body.variables);
+            if (delivery != null) {
+                handleIncrementalDelivery(ctx, delivery, start);
+                return;
+            }
+        }
+        final String eTag = cacheable ? httpCaching.createETag(body.query, body.operationName, body.variables) : null;
+        if (eTag != null && HttpCaching.matches(ctx.header("If-None-Match"), eTag)) {
+            httpCaching.setHeaders(ctx, eTag);
+            ctx.status(HttpCode.NOT_MODIFIED);
+            metrics.observeRequest("not_modified", System.nanoTime() - start, 0);
+            return;
+        }
+        final ResponseCache.Key cacheKey = responseCache != null ? responseCache.createKey(body.query,
+                                                                                           body.operationName,
+                                                                                           body.variables) : null;
+        if (cacheKey != null) {
+            final byte[] cachedResponse = responseCache.get(cacheKey);
+            if (cachedResponse != null) {
+                if (eTag != null)
+                    httpCaching.setHeaders(ctx, eTag);
+                ctx.contentType("application/json");
+                ctx.result(cachedResponse);
+                metrics.observeRequest("cached", System.nanoTime() - start, cachedResponse.length);
+                return;
+            }
+        }
+        if (!queryExecutor.tryAcquire()) {
+            ctx.status(HttpCode.SERVICE_UNAVAILABLE);
+            ctx.header("Retry-After", "1");
+            JsonResponseWriter.writeError(ctx, "Too many queries are currently executed, please retry later");
+            metrics.observeRequest("rejected", System.nanoTime() - start, -1);
+            return;
+        }
+        ctx.future(queryExecutor.execute(createExecutionInput(body)), result -> {
+            try {
+                writeExecutionResult(ctx, (ExecutionResult) result, cacheKey, eTag, start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
-    private static boolean isLineEmptyOrComment(final String l) {
-        return l.length() == 0 || l.trim().startsWith("#");
+    /**
+     * Writes the payloads of a query using @defer or @stream as multipart response. All payloads are executed in a
+     * single query executor slot and each is flushed to the client as soon as it is available.
+     */
+    private void handleIncrementalDelivery(final Context ctx, final IncrementalDelivery delivery,
+                                           final long start) throws IOException {
+        if (!queryExecutor.tryAcquire()) {
+            ctx.status(HttpCode.SERVICE_UNAVAILABLE);
+            ctx.header("Retry-After", "1");
+            JsonResponseWriter.writeError(ctx, "Too many queries are currently executed, please retry later");
+            metrics.observeRequest("rejected", System.nanoTime() - start, -1);
+            return;
+        }
+        ctx.contentType(IncrementalDelivery.CONTENT_TYPE);
+        final ResponseStream outputStream = ResponseStream.open(ctx);
+        ctx.future(queryExecutor.run(() -> {
+            try {
+                delivery.write(outputStream, queryExecutor);
+                outputStream.finish();
+            } catch (IOException e) {
+                if (LOGGER.isDebugEnabled())
+                    LOGGER.debug("Incremental delivery was aborted by the client", e);
+            }
+        }), ignored -> metrics.observeRequest("incremental", System.nanoTime() - start, outputStream.getCount()));
+    }
+
+    private void writeExecutionResult(final Context ctx, final ExecutionResult executionResult,
+                                      final ResponseCache.Key cacheKey, final String eTag,
+                                      final long start) throws IOException {
+        ctx.contentType("application/json");
+        if (eTag != null && executionResult.getErrors().isEmpty())
+            httpCaching.setHeaders(ctx, eTag);
+        final ResponseStream outputStream = ResponseStream.open(ctx);
+        if (cacheKey != null && executionResult.getErrors().isEmpty()) {
+            final ResponseCache.CapturingOutputStream capture = responseCache.capture(outputStream);
+            JsonResponseWriter.write(capture, executionResult);
+            responseCache.put(cacheKey, capture);
+        } else
+            JsonResponseWriter.write(outputStream, executionResult);
+        outputStream.finish();
+        metrics.observeRequest(executionResult.getErrors().isEmpty() ? "executed" : "failed",
+                               System.nanoTime() - start, outputStream.getCount());
     }
 
     private void openBrowser(final int port) {
@@ -194,4 +626,16 @@ public class GraphQLServer {
     private void printHelp(final CmdArgs commandLine) {
         CommandLine.usage(commandLine, System.out);
     }
+
+    private static final class BatchOperation {
+        final RequestBody body;
+        ResponseCache.Key cacheKey;
+        byte[] cachedResponse;
+        ExecutionResult result;
+        CompletableFuture<ExecutionResult> future;
+
+        BatchOperation(final RequestBody body) {
+            this.body = body;
+        }
+    }
 }
@@ -0,0 +1,231 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.model.graph.Edge;
+import graphql.GraphQLException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Breadth-first traversals for the neighborhood and shortest path query fields. Visited nodes and edges are tracked in
+ * primitive ID sets, so every node is expanded at most once and the result contains each node and edge once, no
+ * matter how many paths reach it. Outgoing edges are read from the adjacency index if available.
+ */
+final class GraphTraversal {
+    static final int MAX_VISITED_NODES = 100000;
+    static final int MAX_VISITED_EDGES = 500000;
+
+    enum Direction {
+        OUTGOING,
+        INCOMING,
+        BOTH
+    }
+
+    /**
+     * Deduplicated node and edge IDs of a traversal. Paths list their nodes and edges in path order.
+     */
+    static final class Result {
+        final long[] nodeIds;
+        final long[] edgeIds;
+
+        Result(final long[] nodeIds, final long[] edgeIds) {
+            this.nodeIds = nodeIds;
+            this.edgeIds = edgeIds;
+        }
+    }
+
+    @FunctionalInterface
+    private interface EdgeVisitor {
+        void visit(final long edgeId, final long nodeId);
+    }
+
+    private final GraphAccessor graph;
+    private final String[] edgeLabels;
+    private final Direction direction;
+    private final QueryDeadline deadline;
+
+    /**
+     * @param edgeLabels graph labels of the edges to follow or null to follow all edges
+     */
+    GraphTraversal(final GraphAccessor graph, final String[] edgeLabels, final Direction direction,
+                   final QueryDeadline deadline) {
+        this.graph = graph;
+        this.edgeLabels = edgeLabels;
+        this.direction = direction;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns all nodes within the given number of hops of the start node and the edges leading to them. Fails once
+     * more nodes or edges are visited than allowed, as hub nodes can have far more edges than neighbors.
+     */
+    Result getNeighborhood(final long startId, final int depth) {
+        final LongIdSet nodes = new LongIdSet();
+        final LongIdSet edges = new LongIdSet();
+        nodes.add(startId);
+        int levelStart = 0;
+        for (int level = 0; level < depth && levelStart < nodes.size(); level++) {
+            final int levelEnd = nodes.size();
+            for (int i = levelStart; i < levelEnd; i++) {
+                expand(nodes.get(i), false, (edgeId, nodeId) -> {
+                    if (edges.add(edgeId) >= 0)
+                        checkEdgeCount(edges.size());
+                    if (nodes.add(nodeId) >= 0)
+                        checkVisitedCount(nodes.size());
+                });
+            }
+            levelStart = levelEnd;
+        }
+        return new Result(nodes.toArray(), edges.toArray());
+    }
+
+    /**
+     * Finds a shortest path using a bidirectional breadth-first search, which always expands the smaller frontier.
+     * Returns null if the nodes are not connected by a path of at most the given length.
+     */
+    Result getShortestPath(final long fromId, final long toId, final int maxDepth) {
+        if (fromId == toId)
+            return new Result(new long[]{fromId}, new long[0]);
+        final SearchTree forward = new SearchTree(fromId, false);
+        final SearchTree backward = new SearchTree(toId, true);
+        for (int length = 0; length < maxDepth; length++) {
+            final SearchTree tree = forward.getFrontierSize() <= backward.getFrontierSize() ? forward : backward;
+            final SearchTree opposite = tree == forward ? backward : forward;
+            if (tree.getFrontierSize() == 0)
+                return null;
+            final int meeting = tree.expandLevel(opposite);
+            if (meeting >= 0)
+                return buildPath(forward, backward, tree == forward ? meeting : forward.nodes.indexOf(
+                        backward.nodes.get(meeting)));
+        }
+        return null;
+    }
+
+    private Result buildPath(final SearchTree forward, final SearchTree backward, final int forwardMeeting) {
+        final long meetingId = forward.nodes.get(forwardMeeting);
+        final int backwardMeeting = backward.nodes.indexOf(meetingId);
+        final int length = forward.depths[forwardMeeting] + backward.depths[backwardMeeting];
+        final long[] nodeIds = new long[length + 1];
+        final long[] edgeIds = new long[length];
+        int position = forward.depths[forwardMeeting];
+        for (int index = forwardMeeting; index > 0; index = forward.parents[index], position--) {
+            nodeIds[position] = forward.nodes.get(index);
+            edgeIds[position - 1] = forward.parentEdges[index];
+        }
+        nodeIds[0] = forward.nodes.get(0);
+        position = forward.depths[forwardMeeting];
+        for (int index = backwardMeeting; index > 0; index = backward.parents[index], position++) {
+            nodeIds[position] = backward.nodes.get(index);
+            edgeIds[position] = backward.parentEdges[index];
+        }
+        nodeIds[length] = backward.nodes.get(0);
+        return new Result(nodeIds, edgeIds);
+    }
+
+    private void checkVisitedCount(final int count) {
+        if (count > MAX_VISITED_NODES)
+            throw new GraphQLException("Traversal exceeds the maximum of " + MAX_VISITED_NODES + " visited nodes");
+    }
+
+    private void checkEdgeCount(final int count) {
+        if (count > MAX_VISITED_EDGES)
+            throw new GraphQLException("Traversal exceeds the maximum of " + MAX_VISITED_EDGES + " visited edges");
+    }
+
+    /**
+     * Visits the edges of a node in the traversal direction. Backward traversals, used by the target side of the
+     * shortest path search, follow the edges against the traversal direction.
+     */
+    private void expand(final long nodeId, final boolean backward, final EdgeVisitor visitor) {
+        deadline.check();
+        if (direction == Direction.BOTH || (direction == Direction.OUTGOING) != backward)
+            expandOutgoing(nodeId, visitor);
+        if (direction == Direction.BOTH || (direction == Direction.INCOMING) != backward)
+            expandIncoming(nodeId, visitor);
+    }
+
+    private void expandOutgoing(final long nodeId, final EdgeVisitor visitor) {
+        if (graph.hasAdjacencyIndex()) {
+            for (final String label : edgeLabels != null ? edgeLabels : new String[]{null}) {
+                final AdjacencyIndex.Cursor cursor = graph.getOutgoingEdges(nodeId, label);
+                while (cursor.next())
+                    visitor.visit(cursor.getEdgeId(), cursor.getToId());
+            }
+            return;
+        }
+        expandEdges(Edge.FROM_ID_FIELD, nodeId, false, visitor);
+    }
+
+    private void expandIncoming(final long nodeId, final EdgeVisitor visitor) {
+        expandEdges(Edge.TO_ID_FIELD, nodeId, true, visitor);
+    }
+
+    private void expandEdges(final String key, final long nodeId, final boolean incoming,
+                             final EdgeVisitor visitor) {
+        final Map<String, Comparable<?>> properties = new HashMap<>();
+        properties.put(key, nodeId);
+        for (final String label : edgeLabels != null ? edgeLabels : new String[]{null}) {
+            try (final GraphAccessor.MeteredIterator<Edge> edges = label != null ? graph.findEdges(label,
+                                                                                                   properties) :
+                                                                   graph.findEdges(properties)) {
+                for (final Edge edge : edges)
+                    visitor.visit(edge.getId(), incoming ? edge.getFromId() : edge.getToId());
+            }
+        }
+    }
+
+    /**
+     * One side of the bidirectional search. The visited set doubles as the queue, as nodes are added level by level.
+     */
+    private final class SearchTree {
+        final LongIdSet nodes = new LongIdSet();
+        final boolean backward;
+        int[] parents = new int[16];
+        long[] parentEdges = new long[16];
+        int[] depths = new int[16];
+        private int frontierStart;
+
+        SearchTree(final long rootId, final boolean backward) {
+            this.backward = backward;
+            nodes.add(rootId);
+        }
+
+        int getFrontierSize() {
+            return nodes.size() - frontierStart;
+        }
+
+        /**
+         * Expands all nodes of the frontier and returns the index of the node meeting the opposite tree with the
+         * shortest total path length or -1 if the trees did not meet.
+         */
+        int expandLevel(final SearchTree opposite) {
+            final int frontierEnd = nodes.size();
+            final int[] meeting = {-1, Integer.MAX_VALUE};
+            for (int i = frontierStart; i < frontierEnd; i++) {
+                final int parent = i;
+                expand(nodes.get(i), backward, (edgeId, nodeId) -> {
+                    final int index = nodes.add(nodeId);
+                    if (index < 0)
+                        return;
+                    if (index == parents.length) {
+                        parents = Arrays.copyOf(parents, index * 2);
+                        parentEdges = Arrays.copyOf(parentEdges, index * 2);
+                        depths = Arrays.copyOf(depths, index * 2);
+                    }
+                    parents[index] = parent;
+                    parentEdges[index] = edgeId;
+                    depths[index] = depths[parent] + 1;
+                    checkVisitedCount(nodes.size() + opposite.nodes.size());
+                    final int oppositeIndex = opposite.nodes.indexOf(nodeId);
+                    if (oppositeIndex >= 0 && depths[index] + opposite.depths[oppositeIndex] < meeting[1]) {
+                        meeting[0] = index;
+                        meeting[1] = depths[index] + opposite.depths[oppositeIndex];
+                    }
+                });
+            }
+            frontierStart = frontierEnd;
+            return meeting[0];
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package de.unibi.agbi.biodwh2.graphql.server;
 
-import de.unibi.agbi.biodwh2.core.model.graph.Graph;
 import graphql.Scalars;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetcherFactory;
@@ -13,10 +12,13 @@ import org.slf4j.LoggerFactory;
 final class GraphWiringFactory implements WiringFactory {
     private static final Logger LOGGER = LoggerFactory.getLogger(GraphWiringFactory.class);
 
-    private final Graph graph;
+    private final GraphAccessor graph;
+    private final ServerMetrics metrics;
+    private final QueryPlanner planner = new QueryPlanner();
 
-    GraphWiringFactory(final Graph graph) {
+    GraphWiringFactory(final GraphAccessor graph, final ServerMetrics metrics) {
         this.graph = graph;
+        this.metrics = metrics;
     }
 
     @Override
@@ -93,6 +95,6 @@ final class GraphWiringFactory implements WiringFactory {
 
     @Override
     public DataFetcher<?> getDefaultDataFetcher(final FieldWiringEnvironment environment) {
-        return new GraphDataFetcher(graph);
+        return new GraphDataFetcher(graph, planner, metrics);
     }
 }
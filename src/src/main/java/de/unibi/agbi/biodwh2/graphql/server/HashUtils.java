@@ -1,13 +1,25 @@
 package de.unibi.agbi.biodwh2.graphql.server;
 
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.MurmurHash3;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 final class HashUtils {
+    /**
+     * MVStore files start with two file header blocks and end with the footer of the last written chunk.
+     */
+    private static final int BLOCK_SIZE = 4096;
+    private static final int HEADER_SIZE = 2 * BLOCK_SIZE;
+    private static final int SAMPLE_COUNT = 256;
+
     private HashUtils() {
     }
 
@@ -16,4 +28,46 @@ final class HashUtils {
             return DigestUtils.md5Hex(inputStream);
         }
     }
+
+    /**
+     * Builds a cheap fingerprint of a file from its size, modification time, the MVStore header and last chunk
+     * blocks and up to {@value #SAMPLE_COUNT} evenly spaced sample blocks, hashed with MurmurHash3. At most about
+     * 1 MiB is read independent of the file size.
+     */
+    static String getFingerprintFromFile(final String filePath) throws IOException {
+        final Path path = Paths.get(filePath);
+        final long size = Files.size(path);
+        final long lastModified = Files.getLastModifiedTime(path).toMillis();
+        final ByteBuffer samples = ByteBuffer.allocate(HEADER_SIZE + (SAMPLE_COUNT + 1) * BLOCK_SIZE);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            readBlock(channel, 0, HEADER_SIZE, samples);
+            if (size > HEADER_SIZE) {
+                final long sampledSize = size - HEADER_SIZE;
+                final long sampleCount = Math.min(SAMPLE_COUNT, sampledSize / BLOCK_SIZE);
+                for (long i = 0; i < sampleCount; i++)
+                    readBlock(channel, HEADER_SIZE + i * (sampledSize / sampleCount), BLOCK_SIZE, samples);
+                readBlock(channel, Math.max(HEADER_SIZE, size - BLOCK_SIZE), BLOCK_SIZE, samples);
+            }
+        }
+        final long[] hash = MurmurHash3.hash128x64(samples.array(), 0, samples.position(), 0);
+        return String.format("fingerprint:%d:%d:%016x%016x", size, lastModified, hash[0], hash[1]);
+    }
+
+    /**
+     * Reads a block into the target buffer. A single read may return fewer bytes, so reading is repeated until the
+     * block is complete or the end of the file is reached.
+     */
+    private static void readBlock(final FileChannel channel, final long position, final int length,
+                                  final ByteBuffer target) throws IOException {
+        final int limit = target.limit();
+        target.limit(target.position() + length);
+        long offset = position;
+        while (target.hasRemaining()) {
+            final int read = channel.read(target, offset);
+            if (read < 0)
+                break;
+            offset += read;
+        }
+        target.limit(limit);
+    }
 }
@@ -0,0 +1,58 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
+import io.javalin.http.Context;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.Map;
+
+/**
+ * HTTP caching of GET query responses. The served graph is opened read-only and tied to one workspace hash, so a
+ * response only depends on the query, the operation name and the variables. The entity tag is derived from these
+ * without executing the query, which lets clients and reverse proxies revalidate cached responses cheaply.
+ */
+final class HttpCaching {
+    private final String workspaceHash;
+    private final String cacheControl;
+
+    HttpCaching(final String workspaceHash, final int maxAgeSeconds) {
+        this.workspaceHash = workspaceHash;
+        cacheControl = maxAgeSeconds > 0 ? "public, max-age=" + maxAgeSeconds : "no-cache";
+    }
+
+    String createETag(final String query, final String operationName, final Map<String, Object> variables) {
+        final String canonicalVariables;
+        try {
+            canonicalVariables = variables != null ? ResponseCache.CANONICAL_MAPPER.writeValueAsString(variables) : "";
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+        final String hash = DigestUtils.sha256Hex(
+                workspaceHash + '\n' + GraphQLSchemaWriter.VERSION + '\n' + query + '\n' + operationName + '\n' +
+                canonicalVariables);
+        return '"' + hash.substring(0, 32) + '"';
+    }
+
+    void setHeaders(final Context ctx, final String eTag) {
+        ctx.header("ETag", eTag);
+        ctx.header("Cache-Control", cacheControl);
+    }
+
+    /**
+     * Checks whether the If-None-Match request header lists the entity tag. Weak comparison is used as required by
+     * RFC 7232.
+     */
+    static boolean matches(final String ifNoneMatch, final String eTag) {
+        if (ifNoneMatch == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            if ("*".equals(candidate) || eTag.equals(candidate))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,404 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.unibi.agbi.biodwh2.core.io.mvstore.MVStoreModel;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.language.*;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Incremental delivery of query results using the @defer and @stream directives as multipart/mixed response.
+ * <p>
+ * Deferred fragments and streamed fields are supported in the operation's root selection set. The operation is split
+ * into an initial document without the deferred fragments and one document per deferred fragment, which are executed
+ * one after another and written as separate payloads. Streamed root fields keep their graph iterator open between
+ * executions and each further execution only selects the next chunk of rows, so only the current chunk is held in
+ * memory. Directives in nested selections are ignored and their results are delivered with the enclosing payload.
+ */
+final class IncrementalDelivery {
+    static final String CONTENT_TYPE = "multipart/mixed; boundary=\"-\"; deferSpec=20220824";
+    static final int STREAM_CHUNK_SIZE = 100;
+    private static final String DEFER_DIRECTIVE = "defer";
+    private static final String STREAM_DIRECTIVE = "stream";
+    private static final byte[] PART_HEADER = "\r\n---\r\nContent-Type: application/json; charset=utf-8\r\n\r\n"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END_DELIMITER = "\r\n-----\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private final String operationName;
+    private final Map<String, Object> variables;
+    private final String initialDocument;
+    private final List<DeferredFragment> deferredFragments;
+    private final Map<String, StreamedField> streamedFields;
+
+    private IncrementalDelivery(final String operationName, final Map<String, Object> variables,
+                                final String initialDocument, final List<DeferredFragment> deferredFragments,
+                                final Map<String, StreamedField> streamedFields) {
+        this.operationName = operationName;
+        this.variables = variables;
+        this.initialDocument = initialDocument;
+        this.deferredFragments = deferredFragments;
+        this.streamedFields = streamedFields;
+    }
+
+    /**
+     * Splits the query into its incremental payloads. Returns null if the query does not defer or stream any of its
+     * root selections or cannot be parsed, so it is executed as usual.
+     */
+    static IncrementalDelivery create(final String query, final String operationName,
+                                      final Map<String, Object> variables) {
+        if (!query.contains("@" + DEFER_DIRECTIVE) && !query.contains("@" + STREAM_DIRECTIVE))
+            return null;
+        final Document document;
+        try {
+            document = Parser.parse(query);
+        } catch (InvalidSyntaxException e) {
+            return null;
+        }
+        final OperationDefinition operation = getOperation(document, operationName);
+        if (operation == null || operation.getOperation() != OperationDefinition.Operation.QUERY)
+            return null;
+        final Map<String, Object> values = variables != null ? variables : Collections.emptyMap();
+        final Map<String, FragmentDefinition> fragments = new HashMap<>();
+        for (final FragmentDefinition fragment : document.getDefinitionsOfType(FragmentDefinition.class))
+            fragments.put(fragment.getName(), fragment);
+        final List<Selection> initialSelections = new ArrayList<>();
+        final List<DeferredFragment> deferredFragments = new ArrayList<>();
+        final Map<String, StreamedField> streamedFields = new LinkedHashMap<>();
+        for (final Selection<?> selection : operation.getSelectionSet().getSelections()) {
+            final Directive defer = getActiveDirective(selection, DEFER_DIRECTIVE, values);
+            if (defer != null && !(selection instanceof Field)) {
+                deferredFragments.add(new DeferredFragment(getLabel(defer, values), print(
+                        operation, Collections.singletonList(selection), fragments)));
+                continue;
+            }
+            initialSelections.add(selection);
+            final Directive stream = getActiveDirective(selection, STREAM_DIRECTIVE, values);
+            if (stream != null && selection instanceof Field) {
+                final Field field = (Field) selection;
+                final String fieldDocument = print(operation, Collections.singletonList(field), fragments);
+                streamedFields.put(field.getResultKey(), new StreamedField(field.getResultKey(),
+                                                                           getLabel(stream, values),
+                                                                           getInitialCount(stream, values),
+                                                                           fieldDocument));
+            }
+        }
+        if (deferredFragments.isEmpty() && streamedFields.isEmpty())
+            return null;
+        final String initialDocument;
+        if (initialSelections.isEmpty())
+            initialDocument = null;
+        else
+            initialDocument = deferredFragments.isEmpty() ? query : print(operation, initialSelections, fragments);
+        return new IncrementalDelivery(operationName, variables, initialDocument, deferredFragments, streamedFields);
+    }
+
+    private static OperationDefinition getOperation(final Document document, final String operationName) {
+        final List<OperationDefinition> operations = document.getDefinitionsOfType(OperationDefinition.class);
+        if (operationName == null)
+            return operations.size() == 1 ? operations.get(0) : null;
+        for (final OperationDefinition operation : operations)
+            if (operationName.equals(operation.getName()))
+                return operation;
+        return null;
+    }
+
+    private static Directive getActiveDirective(final Selection<?> selection, final String name,
+                                                final Map<String, Object> variables) {
+        if (!(selection instanceof DirectivesContainer))
+            return null;
+        final List<Directive> directives = ((DirectivesContainer<?>) selection).getDirectives(name);
+        if (directives.isEmpty())
+            return null;
+        final Object condition = getArgumentValue(directives.get(0), "if", variables);
+        return Boolean.FALSE.equals(condition) ? null : directives.get(0);
+    }
+
+    private static String getLabel(final Directive directive, final Map<String, Object> variables) {
+        final Object label = getArgumentValue(directive, "label", variables);
+        return label instanceof String ? (String) label : null;
+    }
+
+    private static int getInitialCount(final Directive directive, final Map<String, Object> variables) {
+        final Object initialCount = getArgumentValue(directive, "initialCount", variables);
+        return initialCount instanceof Number ? Math.max(0, ((Number) initialCount).intValue()) : 0;
+    }
+
+    private static Object getArgumentValue(final Directive directive, final String name,
+                                           final Map<String, Object> variables) {
+        final Argument argument = directive.getArgument(name);
+        if (argument == null)
+            return null;
+        final Value<?> value = argument.getValue();
+        if (value instanceof VariableReference)
+            return variables.get(((VariableReference) value).getName());
+        if (value instanceof BooleanValue)
+            return ((BooleanValue) value).isValue();
+        if (value instanceof IntValue)
+            return ((IntValue) value).getValue();
+        if (value instanceof StringValue)
+            return ((StringValue) value).getValue();
+        return null;
+    }
+
+    /**
+     * Prints a document of the operation with the given root selections. Only the variable and fragment definitions
+     * used by the selections are kept, so the document passes validation on its own.
+     */
+    private static String print(final OperationDefinition operation, final List<Selection> selections,
+                                final Map<String, FragmentDefinition> fragments) {
+        final Set<String> variableNames = new HashSet<>();
+        final Set<String> fragmentNames = new LinkedHashSet<>();
+        for (final Selection<?> selection : selections)
+            collectReferences(selection, variableNames, fragmentNames, fragments);
+        for (final Directive directive : operation.getDirectives())
+            collectReferences(directive, variableNames, fragmentNames, fragments);
+        final List<VariableDefinition> variableDefinitions = new ArrayList<>();
+        for (final VariableDefinition definition : operation.getVariableDefinitions())
+            if (variableNames.contains(definition.getName()))
+                variableDefinitions.add(definition);
+        final Document.Builder builder = Document.newDocument();
+        builder.definition(operation.transform(
+                b -> b.selectionSet(SelectionSet.newSelectionSet(selections).build()).variableDefinitions(
+                        variableDefinitions)));
+        for (final String fragmentName : fragmentNames)
+            if (fragments.containsKey(fragmentName))
+                builder.definition(fragments.get(fragmentName));
+        return AstPrinter.printAst(builder.build());
+    }
+
+    private static void collectReferences(final Node<?> node, final Set<String> variableNames,
+                                          final Set<String> fragmentNames,
+                                          final Map<String, FragmentDefinition> fragments) {
+        if (node instanceof VariableReference)
+            variableNames.add(((VariableReference) node).getName());
+        else if (node instanceof FragmentSpread && fragmentNames.add(((FragmentSpread) node).getName())) {
+            final FragmentDefinition fragment = fragments.get(((FragmentSpread) node).getName());
+            if (fragment != null)
+                collectReferences(fragment, variableNames, fragmentNames, fragments);
+        }
+        for (final Node<?> child : node.getChildren())
+            collectReferences(child, variableNames, fragmentNames, fragments);
+    }
+
+    /**
+     * Returns the streamed root field with the result key if it is resolved as part of this delivery.
+     */
+    StreamedField getStreamedField(final String resultKey) {
+        return streamedFields.get(resultKey);
+    }
+
+    /**
+     * Executes all payloads one after another and writes each as soon as it is available. All payloads share one
+     * deadline, so the delivery as a whole is bounded by the query timeout.
+     */
+    void write(final OutputStream outputStream, final QueryExecutor executor) throws IOException {
+        final long timeoutMillis = executor.getTimeoutMillis();
+        final QueryDeadline deadline = new QueryDeadline(timeoutMillis);
+        try {
+            writeInitialPayload(outputStream, executor, deadline);
+            for (final StreamedField field : streamedFields.values()) {
+                while (field.isOpen()) {
+                    if (deadline.isExpired()) {
+                        writeTimeout(outputStream, timeoutMillis);
+                        return;
+                    }
+                    final int index = field.delivered;
+                    final ExecutionResult result = executor.executeInline(
+                            createExecutionInput(field.document, true), deadline);
+                    if (!result.getErrors().isEmpty())
+                        field.close();
+                    final Object items = result.getData() instanceof Map ? ((Map<?, ?>) result.getData()).get(
+                            field.resultKey) : null;
+                    writeIncrementalPayload(outputStream, "items", items != null ? items : Collections.emptyList(),
+                                            Arrays.asList(field.resultKey, index), field.label, result.getErrors());
+                }
+            }
+            for (final DeferredFragment fragment : deferredFragments) {
+                if (deadline.isExpired()) {
+                    writeTimeout(outputStream, timeoutMillis);
+                    return;
+                }
+                final ExecutionResult result = executor.executeInline(
+                        createExecutionInput(fragment.document, false), deadline);
+                fragment.delivered = true;
+                writeIncrementalPayload(outputStream, "data", result.getData(), Collections.emptyList(),
+                                        fragment.label, result.getErrors());
+            }
+        } finally {
+            for (final StreamedField field : streamedFields.values())
+                field.close();
+        }
+        outputStream.write(END_DELIMITER);
+        outputStream.flush();
+    }
+
+    private void writeInitialPayload(final OutputStream outputStream, final QueryExecutor executor,
+                                     final QueryDeadline deadline) throws IOException {
+        ExecutionResult result = null;
+        if (initialDocument != null) {
+            result = executor.executeInline(createExecutionInput(initialDocument, true), deadline);
+            if (result.getData() == null) {
+                for (final StreamedField field : streamedFields.values())
+                    field.close();
+                deferredFragments.clear();
+            }
+        }
+        final boolean hasNext = hasNext();
+        outputStream.write(PART_HEADER);
+        try (final JsonGenerator generator = JsonResponseWriter.MAPPER.getFactory().createGenerator(outputStream,
+                                                                                                   JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            if (result != null)
+                JsonResponseWriter.writeFields(generator, result);
+            else {
+                generator.writeObjectFieldStart("data");
+                generator.writeEndObject();
+            }
+            generator.writeBooleanField("hasNext", hasNext);
+            generator.writeEndObject();
+        }
+        outputStream.flush();
+    }
+
+    private void writeIncrementalPayload(final OutputStream outputStream, final String valueField, final Object value,
+                                         final List<Object> path, final String label,
+                                         final List<GraphQLError> errors) throws IOException {
+        outputStream.write(PART_HEADER);
+        try (final JsonGenerator generator = JsonResponseWriter.MAPPER.getFactory().createGenerator(outputStream,
+                                                                                                   JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("incremental");
+            generator.writeStartObject();
+            generator.writeFieldName(valueField);
+            JsonResponseWriter.writeValue(generator, value);
+            generator.writeFieldName("path");
+            JsonResponseWriter.writeValue(generator, path);
+            if (label != null)
+                generator.writeStringField("label", label);
+            JsonResponseWriter.writeErrors(generator, errors);
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeBooleanField("hasNext", hasNext());
+            generator.writeEndObject();
+        }
+        outputStream.flush();
+    }
+
+    private void writeTimeout(final OutputStream outputStream, final long timeoutMillis) throws IOException {
+        for (final StreamedField field : streamedFields.values())
+            field.close();
+        deferredFragments.clear();
+        final GraphQLError error = GraphqlErrorBuilder.newError().message(
+                "Query execution timed out after " + timeoutMillis + " ms").build();
+        writeIncrementalPayload(outputStream, "data", null, Collections.emptyList(), null,
+                                Collections.singletonList(error));
+        outputStream.write(END_DELIMITER);
+        outputStream.flush();
+    }
+
+    private boolean hasNext() {
+        for (final StreamedField field : streamedFields.values())
+            if (field.isOpen())
+                return true;
+        for (final DeferredFragment fragment : deferredFragments)
+            if (!fragment.delivered)
+                return true;
+        return false;
+    }
+
+    private ExecutionInput.Builder createExecutionInput(final String document, final boolean streaming) {
+        final ExecutionInput.Builder builder = ExecutionInput.newExecutionInput();
+        builder.query(document);
+        if (operationName != null)
+            builder.operationName(operationName);
+        if (variables != null)
+            builder.variables(variables);
+        if (streaming)
+            builder.graphQLContext(context -> context.of(IncrementalDelivery.class, this));
+        return builder;
+    }
+
+    private static final class DeferredFragment {
+        final String label;
+        final String document;
+        boolean delivered;
+
+        DeferredFragment(final String label, final String document) {
+            this.label = label;
+            this.document = document;
+        }
+    }
+
+    /**
+     * State of a streamed root field. The graph iterator is opened by the first execution and each execution takes the
+     * next chunk of models from it, starting with the initial count.
+     */
+    static final class StreamedField {
+        final String resultKey;
+        final String label;
+        final int initialCount;
+        final String document;
+        private WhereFilter.FilteredIterator<? extends MVStoreModel> iterator;
+        private boolean closed;
+        private boolean initialSelected;
+        private int delivered;
+
+        StreamedField(final String resultKey, final String label, final int initialCount, final String document) {
+            this.resultKey = resultKey;
+            this.label = label;
+            this.initialCount = initialCount;
+            this.document = document;
+        }
+
+        /**
+         * Whether the graph iterator has to be opened by the current execution.
+         */
+        boolean requiresIterator() {
+            return iterator == null && !closed;
+        }
+
+        void open(final WhereFilter.FilteredIterator<? extends MVStoreModel> iterator) {
+            this.iterator = iterator;
+            if (!iterator.hasNext())
+                close();
+        }
+
+        boolean isOpen() {
+            return iterator != null && !closed;
+        }
+
+        Iterator<? extends MVStoreModel> getIterator() {
+            return closed ? Collections.emptyIterator() : iterator;
+        }
+
+        /**
+         * Returns the number of models the current execution selects.
+         */
+        int getChunkSize() {
+            return initialSelected ? STREAM_CHUNK_SIZE : initialCount;
+        }
+
+        void advance(final int count) {
+            initialSelected = true;
+            delivered += count;
+            if (iterator != null && !iterator.hasNext())
+                close();
+        }
+
+        void close() {
+            if (iterator != null && !closed)
+                iterator.close();
+            closed = true;
+        }
+    }
+}
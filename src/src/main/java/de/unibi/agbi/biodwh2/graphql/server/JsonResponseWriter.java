@@ -0,0 +1,134 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams execution results directly into the response output stream. The result data tree is walked and written
+ * token by token, so neither the specification map copy nor an intermediate response string is built.
+ */
+final class JsonResponseWriter {
+    /**
+     * Values are written into shared generators, which are flushed explicitly by their writers instead of once per
+     * value.
+     */
+    static final ObjectMapper MAPPER = new ObjectMapper().disable(SerializationFeature.FAIL_ON_EMPTY_BEANS).disable(
+            SerializationFeature.FLUSH_AFTER_WRITE_VALUE).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private JsonResponseWriter() {
+    }
+
+    static void write(final Context ctx, final ExecutionResult result) throws IOException {
+        ctx.contentType("application/json");
+        final ResponseStream outputStream = ResponseStream.open(ctx);
+        write(outputStream, result);
+        outputStream.finish();
+    }
+
+    static void writeError(final Context ctx, final String message) throws IOException {
+        writeError(ctx, message, null);
+    }
+
+    static void writeError(final Context ctx, final String message, final String code) throws IOException {
+        ctx.contentType("application/json");
+        final ResponseStream outputStream = ResponseStream.open(ctx);
+        try (final JsonGenerator generator = MAPPER.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("errors");
+            generator.writeStartObject();
+            generator.writeStringField("message", message);
+            if (code != null) {
+                generator.writeObjectFieldStart("extensions");
+                generator.writeStringField("code", code);
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        outputStream.finish();
+    }
+
+    static void write(final OutputStream outputStream, final ExecutionResult result) throws IOException {
+        try (final JsonGenerator generator = MAPPER.getFactory().createGenerator(outputStream, JsonEncoding.UTF8)) {
+            write(generator, result);
+        }
+    }
+
+    static void write(final JsonGenerator generator, final ExecutionResult result) throws IOException {
+        generator.writeStartObject();
+        writeFields(generator, result);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the errors, data and extensions of a result into the current object.
+     */
+    static void writeFields(final JsonGenerator generator, final ExecutionResult result) throws IOException {
+        writeErrors(generator, result.getErrors());
+        if (result.isDataPresent()) {
+            generator.writeFieldName("data");
+            writeValue(generator, result.getData());
+        }
+        if (result.getExtensions() != null) {
+            generator.writeFieldName("extensions");
+            writeValue(generator, result.getExtensions());
+        }
+    }
+
+    static void writeErrors(final JsonGenerator generator, final List<GraphQLError> errors) throws IOException {
+        if (errors != null && !errors.isEmpty()) {
+            generator.writeArrayFieldStart("errors");
+            for (final GraphQLError error : errors)
+                writeValue(generator, error.toSpecification());
+            generator.writeEndArray();
+        }
+    }
+
+    static void writeValue(final JsonGenerator generator, final Object value) throws IOException {
+        if (value == null)
+            generator.writeNull();
+        else if (value instanceof String)
+            generator.writeString((String) value);
+        else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof Iterable) {
+            generator.writeStartArray();
+            for (final Object item : (Iterable<?>) value)
+                writeValue(generator, item);
+            generator.writeEndArray();
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+            generator.writeNumber(((Number) value).intValue());
+        else if (value instanceof Long)
+            generator.writeNumber((Long) value);
+        else if (value instanceof Double)
+            generator.writeNumber((Double) value);
+        else if (value instanceof Float)
+            generator.writeNumber((Float) value);
+        else if (value instanceof BigInteger)
+            generator.writeNumber((BigInteger) value);
+        else if (value instanceof BigDecimal)
+            generator.writeNumber((BigDecimal) value);
+        else if (value instanceof Boolean)
+            generator.writeBoolean((Boolean) value);
+        else
+            MAPPER.writeValue(generator, value);
+    }
+}
@@ -0,0 +1,81 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of primitive long IDs. Each added ID is assigned a dense index in insertion order, so
+ * breadth-first traversals can use the set as their queue and keep per-ID state in parallel primitive arrays without
+ * boxing.
+ */
+final class LongIdSet {
+    private long[] ids = new long[16];
+    /**
+     * Hash table of indices into the ids array plus one, zero marks an empty bucket.
+     */
+    private int[] table = new int[32];
+    /**
+     * Shift keeping the log2(table.length) high bits of a hash.
+     */
+    private int shift = 64 - 5;
+    private int size;
+
+    /**
+     * Adds the ID and returns its index or -1 if the set already contains it.
+     */
+    int add(final long id) {
+        int bucket = getBucket(id);
+        while (table[bucket] != 0) {
+            if (ids[table[bucket] - 1] == id)
+                return -1;
+            bucket = (bucket + 1) & (table.length - 1);
+        }
+        if (size == ids.length)
+            ids = Arrays.copyOf(ids, size * 2);
+        ids[size] = id;
+        table[bucket] = ++size;
+        if (size * 2 > table.length)
+            rehash();
+        return size - 1;
+    }
+
+    /**
+     * Returns the index of the ID or -1 if the set does not contain it.
+     */
+    int indexOf(final long id) {
+        int bucket = getBucket(id);
+        while (table[bucket] != 0) {
+            if (ids[table[bucket] - 1] == id)
+                return table[bucket] - 1;
+            bucket = (bucket + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    long get(final int index) {
+        return ids[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    private int getBucket(final long id) {
+        // Fibonacci hashing spreads sequential IDs over the table, its high bits are the best distributed
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        shift--;
+        for (int i = 0; i < size; i++) {
+            int bucket = getBucket(ids[i]);
+            while (table[bucket] != 0)
+                bucket = (bucket + 1) & (table.length - 1);
+            table[bucket] = i + 1;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.ExecutionResult;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+
+/**
+ * Records the duration of each operation and of each root field fetch. Nested fields are read from the results of
+ * their root field and are therefore not timed individually.
+ */
+final class MetricsInstrumentation extends SimpleInstrumentation {
+    private final ServerMetrics metrics;
+
+    MetricsInstrumentation(final ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+            final InstrumentationExecuteOperationParameters parameters) {
+        final long start = System.nanoTime();
+        final String operationName = parameters.getExecutionContext().getOperationDefinition().getName();
+        return SimpleInstrumentationContext.whenCompleted(
+                (result, throwable) -> metrics.observeOperation(operationName, System.nanoTime() - start));
+    }
+
+    @Override
+    public InstrumentationContext<Object> beginFieldFetch(final InstrumentationFieldFetchParameters parameters) {
+        if (parameters.getEnvironment().getSource() != null)
+            return super.beginFieldFetch(parameters);
+        final long start = System.nanoTime();
+        final String fieldName = parameters.getEnvironment().getFieldDefinition().getName();
+        return SimpleInstrumentationContext.whenCompleted(
+                (result, throwable) -> metrics.observeField("root", fieldName, System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,80 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.unibi.agbi.biodwh2.core.io.mvstore.MVStoreModel;
+import de.unibi.agbi.biodwh2.core.model.graph.Edge;
+import de.unibi.agbi.biodwh2.core.model.graph.Node;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * Cache of decoded nodes and edges by ID, so frequently reached hub models are not read and deserialized from the
+ * graph again on every access. The graph is opened read-only, so entries never need to be invalidated. Entries are
+ * weighed by their estimated heap size and evicted using Caffeine's frequency-aware W-TinyLFU policy.
+ */
+final class ModelCache {
+    private final Cache<Long, MVStoreModel> cache;
+
+    ModelCache(final long maximumBytes) {
+        cache = Caffeine.newBuilder().maximumWeight(maximumBytes).<Long, MVStoreModel>weigher(
+                (key, model) -> estimateWeight(model)).recordStats().build();
+    }
+
+    Node getNode(final long id, final LongFunction<Node> loader) {
+        return (Node) cache.get(getKey(id, false), key -> loader.apply(id));
+    }
+
+    Edge getEdge(final long id, final LongFunction<Edge> loader) {
+        return (Edge) cache.get(getKey(id, true), key -> loader.apply(id));
+    }
+
+    /**
+     * Nodes and edges have separate ID sequences, so the model kind is encoded in the lowest bit of the key.
+     */
+    private static Long getKey(final long id, final boolean isEdge) {
+        return (id << 1) | (isEdge ? 1 : 0);
+    }
+
+    private static int estimateWeight(final MVStoreModel model) {
+        long weight = 64;
+        for (final Map.Entry<String, Object> entry : model.entrySet())
+            weight += 48 + 2L * entry.getKey().length() + estimateWeight(entry.getValue());
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    private static long estimateWeight(final Object value) {
+        if (value instanceof String)
+            return 40 + 2L * ((String) value).length();
+        if (value instanceof Collection) {
+            long weight = 32;
+            for (final Object element : (Collection<?>) value)
+                weight += 8 + estimateWeight(element);
+            return weight;
+        }
+        if (value instanceof Object[]) {
+            long weight = 16;
+            for (final Object element : (Object[]) value)
+                weight += 8 + estimateWeight(element);
+            return weight;
+        }
+        if (value != null && value.getClass().isArray())
+            return 16 + 8L * Array.getLength(value);
+        return 16;
+    }
+
+    long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    long getWeightedSize() {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+}
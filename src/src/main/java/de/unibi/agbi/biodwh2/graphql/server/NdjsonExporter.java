@@ -0,0 +1,180 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import de.unibi.agbi.biodwh2.core.io.mvstore.MVStoreModel;
+import graphql.Scalars;
+import graphql.language.*;
+import graphql.schema.*;
+import io.javalin.http.Context;
+import io.javalin.http.HttpCode;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bulk export of all nodes or edges of a label as newline-delimited JSON. Models are written one per line while they
+ * are iterated from the graph, so the memory needed is constant regardless of the label cardinality. The number of
+ * concurrent exports is bounded, so slow clients blocking their response writes cannot exhaust the server's threads.
+ * Stalled clients are disconnected by the HTTP connection idle timeout, which ends the export.
+ */
+final class NdjsonExporter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(NdjsonExporter.class);
+    static final String CONTENT_TYPE = "application/x-ndjson";
+    static final String PROPERTIES_PARAMETER = "properties";
+
+    private final GraphAccessor graph;
+    private final GraphQLSchema schema;
+    private final QueryPlanner.TypeTable types;
+    private final ServerMetrics metrics;
+    private final Semaphore exports;
+
+    NdjsonExporter(final GraphAccessor graph, final GraphQLSchema schema, final ServerMetrics metrics,
+                   final int maxExports) {
+        this.graph = graph;
+        this.schema = schema;
+        types = new QueryPlanner().getTypes(schema);
+        this.metrics = metrics;
+        exports = new Semaphore(maxExports);
+    }
+
+    void handle(final Context ctx) throws IOException {
+        final long start = System.nanoTime();
+        final QueryPlanner.TypeDescriptor type = getType(ctx.pathParam("label"));
+        if (type == null) {
+            ctx.status(HttpCode.NOT_FOUND);
+            JsonResponseWriter.writeError(ctx, "Unknown node or edge label '" + ctx.pathParam("label") + "'");
+            metrics.observeRequest("invalid", System.nanoTime() - start, -1);
+            return;
+        }
+        final List<QueryPlanner.FieldDescriptor> properties;
+        final Map<String, Comparable<?>> filters;
+        try {
+            properties = getProperties(type, ctx.queryParam(PROPERTIES_PARAMETER));
+            filters = getFilters(type, ctx.queryParamMap());
+        } catch (IllegalArgumentException e) {
+            ctx.status(HttpCode.BAD_REQUEST);
+            JsonResponseWriter.writeError(ctx, e.getMessage());
+            metrics.observeRequest("invalid", System.nanoTime() - start, -1);
+            return;
+        }
+        if (!exports.tryAcquire()) {
+            ctx.status(HttpCode.SERVICE_UNAVAILABLE);
+            ctx.header("Retry-After", "10");
+            JsonResponseWriter.writeError(ctx, "Too many exports are currently running, please retry later");
+            metrics.observeRequest("rejected", System.nanoTime() - start, -1);
+            return;
+        }
+        try {
+            final long bytes = export(ctx, type, properties, filters);
+            metrics.observeRequest("export", System.nanoTime() - start, bytes);
+        } catch (IOException e) {
+            if (LOGGER.isDebugEnabled())
+                LOGGER.debug("Export of '" + type.name + "' was aborted by the client", e);
+            metrics.observeRequest("export_aborted", System.nanoTime() - start, -1);
+        } finally {
+            exports.release();
+        }
+    }
+
+    /**
+     * Resolves the node or edge type by its GraphQL type name or its label in the graph.
+     */
+    private QueryPlanner.TypeDescriptor getType(final String label) {
+        QueryPlanner.TypeDescriptor type = types.get(label);
+        if (type == null || !(type.isNode || type.isEdge))
+            type = types.getForGraphLabel(label);
+        return type != null && (type.isNode || type.isEdge) ? type : null;
+    }
+
+    private static List<QueryPlanner.FieldDescriptor> getProperties(final QueryPlanner.TypeDescriptor type,
+                                                                    final String projection) {
+        final List<QueryPlanner.FieldDescriptor> properties = new ArrayList<>();
+        if (StringUtils.isBlank(projection)) {
+            for (final GraphQLFieldDefinition definition : type.type.getFieldDefinitions()) {
+                final QueryPlanner.FieldDescriptor descriptor = type.fields.get(definition.getName());
+                if (descriptor != null && descriptor.kind == QueryPlanner.FieldKind.PROPERTY)
+                    properties.add(descriptor);
+            }
+            return properties;
+        }
+        for (final String name : StringUtils.split(projection, ',')) {
+            final QueryPlanner.FieldDescriptor descriptor = type.fields.get(name.trim());
+            if (descriptor == null || descriptor.kind != QueryPlanner.FieldKind.PROPERTY)
+                throw new IllegalArgumentException("Unknown property '" + name.trim() + "' of '" + type.name + "'");
+            properties.add(descriptor);
+        }
+        return properties;
+    }
+
+    /**
+     * Converts the query parameters into equality filters. Parameters are named like the arguments of the type's
+     * query endpoint and converted the same way as GraphQL argument values.
+     */
+    private Map<String, Comparable<?>> getFilters(final QueryPlanner.TypeDescriptor type,
+                                                  final Map<String, List<String>> parameters) {
+        final GraphQLFieldDefinition endpoint = schema.getQueryType().getFieldDefinition(type.name);
+        final Map<String, Comparable<?>> filters = new HashMap<>();
+        for (final Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+            if (PROPERTIES_PARAMETER.equals(parameter.getKey()) || parameter.getValue().isEmpty())
+                continue;
+            final GraphQLArgument argument = endpoint != null ? endpoint.getArgument(parameter.getKey()) : null;
+            if (argument == null || WhereFilter.WHERE_ARGUMENT.equals(argument.getName()))
+                throw new IllegalArgumentException("Unknown filter '" + parameter.getKey() + "' of '" + type.name +
+                                                   "'");
+            final String key = QueryPlanner.translatePropertyKey(argument.getName());
+            final Value<?> value = parseValue(argument, parameter.getValue().get(0));
+            filters.put(key, GraphDataFetcher.convertGraphQLValue(key, value, Collections.emptyMap()));
+        }
+        return filters;
+    }
+
+    private static Value<?> parseValue(final GraphQLArgument argument, final String value) {
+        final GraphQLType type = GraphQLTypeUtil.unwrapAll(argument.getType());
+        try {
+            if (Scalars.GraphQLInt.equals(type) || Scalars.GraphQLID.equals(type))
+                return new IntValue(new BigInteger(value));
+            if (Scalars.GraphQLFloat.equals(type))
+                return new FloatValue(new BigDecimal(value));
+            if (Scalars.GraphQLBoolean.equals(type)) {
+                if (!"true".equals(value) && !"false".equals(value))
+                    throw new IllegalArgumentException(
+                            "Invalid boolean '" + value + "' for filter '" + argument.getName() + "'");
+                return BooleanValue.of(Boolean.parseBoolean(value));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number '" + value + "' for filter '" + argument.getName() + "'");
+        }
+        return StringValue.of(value);
+    }
+
+    private long export(final Context ctx, final QueryPlanner.TypeDescriptor type,
+                        final List<QueryPlanner.FieldDescriptor> properties,
+                        final Map<String, Comparable<?>> filters) throws IOException {
+        ctx.contentType(CONTENT_TYPE);
+        final ResponseStream outputStream = ResponseStream.open(ctx);
+        try (final GraphAccessor.MeteredIterator<? extends MVStoreModel> models = type.isNode ? graph.findNodes(
+                type.graphLabel, filters) : graph.findEdges(type.graphLabel, filters);
+             final JsonGenerator generator = JsonResponseWriter.MAPPER.getFactory().createGenerator(outputStream,
+                                                                                                    JsonEncoding.UTF8)) {
+            generator.setRootValueSeparator(null);
+            for (final MVStoreModel model : models) {
+                generator.writeStartObject();
+                for (final QueryPlanner.FieldDescriptor property : properties) {
+                    generator.writeFieldName(property.name);
+                    JsonResponseWriter.writeValue(generator, model.getProperty(property.propertyKey));
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        }
+        outputStream.finish();
+        return outputStream.getCount();
+    }
+}
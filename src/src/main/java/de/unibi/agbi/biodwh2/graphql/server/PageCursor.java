@@ -0,0 +1,42 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.GraphQLException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque connection cursor encoding the position of a model inside the ordered graph iteration together with the
+ * model ID found at that position.
+ */
+final class PageCursor {
+    private static final String PREFIX = "cursor:";
+
+    final long offset;
+    final long id;
+
+    PageCursor(final long offset, final long id) {
+        this.offset = offset;
+        this.id = id;
+    }
+
+    String encode() {
+        final String value = PREFIX + offset + ':' + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static PageCursor decode(final String cursor) {
+        if (cursor == null)
+            return null;
+        try {
+            final String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (value.startsWith(PREFIX)) {
+                final String[] parts = value.substring(PREFIX.length()).split(":");
+                if (parts.length == 2)
+                    return new PageCursor(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            }
+        } catch (IllegalArgumentException ignored) {
+        }
+        throw new GraphQLException("Invalid cursor '" + cursor + "'");
+    }
+}
@@ -0,0 +1,66 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Store of automatic persisted queries. Clients send the SHA-256 hash of a query in the "persistedQuery" request
+ * extension and only send the full query text once, when the server reports the hash as unknown.
+ */
+final class PersistedQueryStore {
+    static final String NOT_FOUND_MESSAGE = "PersistedQueryNotFound";
+    static final String NOT_FOUND_CODE = "PERSISTED_QUERY_NOT_FOUND";
+    private static final String EXTENSION_NAME = "persistedQuery";
+    private static final int SUPPORTED_VERSION = 1;
+
+    private final Cache<String, String> queries;
+
+    PersistedQueryStore(final int maximumSize) {
+        queries = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * Returns the query hash of the persisted query extension or null if the request does not use it.
+     */
+    static String getHash(final Map<String, Object> extensions) {
+        if (extensions == null || !(extensions.get(EXTENSION_NAME) instanceof Map))
+            return null;
+        final Map<?, ?> persistedQuery = (Map<?, ?>) extensions.get(EXTENSION_NAME);
+        final Object version = persistedQuery.get("version");
+        if (!(version instanceof Number) || ((Number) version).intValue() != SUPPORTED_VERSION)
+            throw new IllegalArgumentException("Unsupported persisted query version '" + version + "'");
+        final Object hash = persistedQuery.get("sha256Hash");
+        if (!(hash instanceof String))
+            throw new IllegalArgumentException("Missing persisted query hash");
+        return ((String) hash).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Registers the query if one is given and returns it. Otherwise, returns the stored query for the hash or null if
+     * it is unknown.
+     */
+    String resolve(final String hash, final String query) {
+        if (query == null)
+            return queries.getIfPresent(hash);
+        if (!hash.equals(DigestUtils.sha256Hex(query)))
+            throw new IllegalArgumentException("Provided SHA-256 hash does not match the query");
+        queries.put(hash, query);
+        return query;
+    }
+
+    long getHitCount() {
+        return queries.stats().hitCount();
+    }
+
+    long getMissCount() {
+        return queries.stats().missCount();
+    }
+
+    long getSize() {
+        return queries.estimatedSize();
+    }
+}
@@ -0,0 +1,356 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
+import graphql.GraphQLException;
+import graphql.language.*;
+import graphql.schema.*;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Estimates the cost of a query operation before it is executed. The cost of a field is the number of models scanned
+ * plus the number of models returned multiplied by the cost of the field's own selection per returned model. Row
+ * counts are taken from the label cardinalities stored in the schema using the GraphStatistics directive. Filters
+ * served by an index of the graph only scan the models found by their lookups.
+ */
+final class QueryCostAnalyzer {
+    /**
+     * Assumed fraction of models matching a filter or a single value of an index lookup.
+     */
+    private static final double FILTER_SELECTIVITY = 0.01;
+
+    /**
+     * Tells whether lookups by a property of a node or edge label are served by an index of the graph.
+     */
+    interface IndexLookup {
+        boolean isIndexed(boolean isNode, String label, String property);
+    }
+
+    static final class QueryCost {
+        final double cost;
+        final int depth;
+
+        QueryCost(final double cost, final int depth) {
+            this.cost = cost;
+            this.depth = depth;
+        }
+    }
+
+    private static final class Rows {
+        final double scanned;
+        final double returned;
+
+        Rows(final double scanned, final double returned) {
+            this.scanned = scanned;
+            this.returned = returned;
+        }
+    }
+
+    private static final class Context {
+        final Map<String, FragmentDefinition> fragments;
+        final Map<String, Object> variables;
+        int depth;
+
+        Context(final Map<String, FragmentDefinition> fragments, final Map<String, Object> variables) {
+            this.fragments = fragments;
+            this.variables = variables;
+        }
+    }
+
+    private final GraphQLSchema schema;
+    private final IndexLookup indexLookup;
+    private final Map<String, Long> typeCounts = new HashMap<>();
+    private final long totalNodes;
+    private final double averageDegree;
+
+    QueryCostAnalyzer(final GraphQLSchema schema, final IndexLookup indexLookup) {
+        this.schema = schema;
+        this.indexLookup = indexLookup;
+        long nodeCount = 0;
+        long totalEdges = 0;
+        for (final GraphQLNamedType type : schema.getAllTypesAsList()) {
+            if (!(type instanceof GraphQLObjectType))
+                continue;
+            final GraphQLAppliedDirective directive = ((GraphQLObjectType) type).getAppliedDirective(
+                    "GraphStatistics");
+            if (directive == null)
+                continue;
+            final Object value = directive.getArgument("count").getValue();
+            final long count = value instanceof Number ? ((Number) value).longValue() : 0;
+            typeCounts.put(type.getName(), count);
+            if (hasInterface((GraphQLObjectType) type, "Node"))
+                nodeCount += count;
+            else
+                totalEdges += count;
+        }
+        totalNodes = nodeCount;
+        averageDegree = nodeCount > 0 ? Math.max(1, (double) totalEdges / nodeCount) : 1;
+    }
+
+    QueryCost estimate(final OperationDefinition operation, final Map<String, FragmentDefinition> fragments,
+                       final Map<String, Object> variables) {
+        final Context context = new Context(fragments, variables);
+        final double cost = estimateSelectionSet(operation.getSelectionSet(), schema.getQueryType(), 0, context);
+        return new QueryCost(cost, context.depth);
+    }
+
+    private double estimateSelectionSet(final SelectionSet selectionSet, final GraphQLCompositeType parentType,
+                                        final int depth, final Context context) {
+        if (selectionSet == null)
+            return 0;
+        double cost = 0;
+        for (final Selection<?> selection : selectionSet.getSelections()) {
+            if (selection instanceof Field)
+                cost += estimateField((Field) selection, parentType, depth, context);
+            else if (selection instanceof InlineFragment) {
+                final InlineFragment fragment = (InlineFragment) selection;
+                final GraphQLCompositeType type = fragment.getTypeCondition() != null ? getCompositeType(
+                        fragment.getTypeCondition().getName(), parentType) : parentType;
+                cost += estimateSelectionSet(fragment.getSelectionSet(), type, depth, context);
+            } else if (selection instanceof FragmentSpread) {
+                final FragmentDefinition fragment = context.fragments.get(((FragmentSpread) selection).getName());
+                if (fragment != null)
+                    cost += estimateSelectionSet(fragment.getSelectionSet(), getCompositeType(
+                            fragment.getTypeCondition().getName(), parentType), depth, context);
+            }
+        }
+        return cost;
+    }
+
+    private GraphQLCompositeType getCompositeType(final String name, final GraphQLCompositeType fallback) {
+        final GraphQLType type = schema.getType(name);
+        return type instanceof GraphQLCompositeType ? (GraphQLCompositeType) type : fallback;
+    }
+
+    private double estimateField(final Field field, final GraphQLCompositeType parentType, final int depth,
+                                 final Context context) {
+        if (field.getName().startsWith("__") || !(parentType instanceof GraphQLFieldsContainer))
+            return 0;
+        final GraphQLFieldDefinition definition = ((GraphQLFieldsContainer) parentType).getFieldDefinition(
+                field.getName());
+        if (definition == null)
+            return 0;
+        final GraphQLAppliedDirective aggregate = definition.getAppliedDirective("GraphAggregate");
+        if (aggregate != null)
+            return estimateAggregate(field, parentType, definition, aggregate, depth, context);
+        final GraphQLType fieldType = unwrapType(definition.getType());
+        if (!(fieldType instanceof GraphQLCompositeType))
+            return 0;
+        context.depth = Math.max(context.depth, depth + 1);
+        if (parentType == schema.getQueryType() && (GraphQLSchemaWriter.NEIGHBORHOOD_FIELD.equals(field.getName()) ||
+                                                     GraphQLSchemaWriter.SHORTEST_PATH_FIELD.equals(field.getName())))
+            return estimateTraversal(field, (GraphQLCompositeType) fieldType, depth, context);
+        if (fieldType instanceof GraphQLObjectType && hasInterface((GraphQLObjectType) fieldType, "Connection"))
+            return estimateConnection(field, (GraphQLObjectType) fieldType, depth, context);
+        final Rows rows = estimateRows(field, parentType, (GraphQLCompositeType) fieldType, context);
+        final double selectionCost = estimateSelectionSet(field.getSelectionSet(), (GraphQLCompositeType) fieldType,
+                                                          depth + 1, context);
+        return rows.scanned + rows.returned * (1 + selectionCost);
+    }
+
+    private double estimateConnection(final Field field, final GraphQLObjectType connectionType, final int depth,
+                                      final Context context) {
+        final GraphQLObjectType edgeType = (GraphQLObjectType) unwrapType(
+                connectionType.getFieldDefinition("edges").getType());
+        final GraphQLCompositeType nodeType = (GraphQLCompositeType) unwrapType(
+                edgeType.getFieldDefinition("node").getType());
+        final Object first = getArgumentValue(field, "first", context);
+        final double pageSize = first instanceof Number ? ((Number) first).doubleValue() :
+                                GraphQLSchemaWriter.DEFAULT_PAGE_SIZE;
+        final Rows rows = estimateRows(field, schema.getQueryType(), nodeType, context);
+        double nodeCost = 0;
+        for (final Selection<?> edgesSelection : field.getSelectionSet().getSelections())
+            if (edgesSelection instanceof Field && "edges".equals(((Field) edgesSelection).getName()))
+                for (final Selection<?> nodeSelection : ((Field) edgesSelection).getSelectionSet().getSelections())
+                    if (nodeSelection instanceof Field && "node".equals(((Field) nodeSelection).getName()))
+                        nodeCost += estimateSelectionSet(((Field) nodeSelection).getSelectionSet(), nodeType,
+                                                         depth + 3, context);
+        context.depth = Math.max(context.depth, depth + 3);
+        final double returned = Math.min(pageSize, rows.returned);
+        // Pages are found by reading all rows before the cursor again
+        final double skipped = Math.min(getCursorOffset(getArgumentValue(field, "after", context)), rows.returned);
+        final double scanned = rows.scanned > rows.returned ? rows.scanned : skipped + returned;
+        return scanned + returned * (1 + nodeCost);
+    }
+
+    private static long getCursorOffset(final Object after) {
+        final Object cursor = after instanceof StringValue ? ((StringValue) after).getValue() : after;
+        if (!(cursor instanceof String))
+            return 0;
+        try {
+            return Math.max(0, PageCursor.decode((String) cursor).offset);
+        } catch (GraphQLException e) {
+            // Invalid cursors are reported by the execution
+            return 0;
+        }
+    }
+
+    /**
+     * Traversals expand every reached node once, so the nodes reached grow with the average degree per level up to
+     * the total number of nodes. The bidirectional shortest path search only expands half of the levels per side and
+     * returns a single path.
+     */
+    private double estimateTraversal(final Field field, final GraphQLCompositeType resultType, final int depth,
+                                     final Context context) {
+        final boolean isPath = GraphQLSchemaWriter.SHORTEST_PATH_FIELD.equals(field.getName());
+        final Object depthValue = getArgumentValue(field, isPath ? "maxDepth" : "depth", context);
+        final int levels = depthValue instanceof Number ? ((Number) depthValue).intValue() : isPath ? 6 : 1;
+        final Object direction = getArgumentValue(field, "direction", context);
+        final boolean both = "BOTH".equals(direction instanceof EnumValue ? ((EnumValue) direction).getName() :
+                                           direction);
+        final double degree = both ? averageDegree * 2 : averageDegree;
+        double reached = 0;
+        double levelNodes = 1;
+        for (int level = 0; level <= (isPath ? (levels + 1) / 2 : levels) && reached < totalNodes; level++) {
+            reached += levelNodes;
+            levelNodes *= degree;
+        }
+        reached = Math.max(1, Math.min(totalNodes, isPath ? reached * 2 : reached));
+        final double returnedNodes = isPath ? Math.min(reached, levels + 1) : reached;
+        final double returnedEdges = isPath ? Math.min(reached, levels) : reached * degree;
+        double cost = reached * degree;
+        for (final Selection<?> selection : field.getSelectionSet().getSelections()) {
+            if (!(selection instanceof Field) || !(resultType instanceof GraphQLObjectType))
+                continue;
+            final Field resultField = (Field) selection;
+            final GraphQLFieldDefinition definition = ((GraphQLObjectType) resultType).getFieldDefinition(
+                    resultField.getName());
+            if (definition == null || !(unwrapType(definition.getType()) instanceof GraphQLCompositeType))
+                continue;
+            final double selectionCost = estimateSelectionSet(resultField.getSelectionSet(),
+                                                              (GraphQLCompositeType) unwrapType(definition.getType()),
+                                                              depth + 2, context);
+            cost += ("nodes".equals(resultField.getName()) ? returnedNodes : returnedEdges) * (1 + selectionCost);
+        }
+        context.depth = Math.max(context.depth, depth + 2);
+        return cost;
+    }
+
+    /**
+     * Aggregates scan all matching models but return a single result. Unfiltered counts of a label are answered from
+     * the schema statistics.
+     */
+    private double estimateAggregate(final Field field, final GraphQLCompositeType parentType,
+                                     final GraphQLFieldDefinition definition, final GraphQLAppliedDirective aggregate,
+                                     final int depth, final Context context) {
+        context.depth = Math.max(context.depth, depth + 1);
+        final GraphQLType type = schema.getType((String) aggregate.getArgument("type").getValue());
+        if (!(type instanceof GraphQLCompositeType))
+            return 1;
+        if (parentType == schema.getQueryType() && unwrapType(definition.getType()) instanceof GraphQLScalarType) {
+            boolean filtered = false;
+            for (final Argument argument : field.getArguments())
+                filtered |= hasArgument(field, argument.getName(), context);
+            if (!filtered)
+                return 1;
+        }
+        return estimateRows(field, parentType, (GraphQLCompositeType) type, context).scanned + 1;
+    }
+
+    private Rows estimateRows(final Field field, final GraphQLCompositeType parentType,
+                              final GraphQLCompositeType fieldType, final Context context) {
+        if (parentType == schema.getQueryType()) {
+            if ("_node".equals(field.getName()) || "_edge".equals(field.getName()))
+                return new Rows(1, 1);
+            final long count = getCount(fieldType);
+            if (hasArgument(field, "_id", context))
+                return new Rows(1, 1);
+            if (hasArgument(field, "_from_id", context) || hasArgument(field, "_to_id", context))
+                return new Rows(averageDegree, averageDegree);
+            final int lookups = getLookupCount(field, fieldType, context);
+            if (lookups > 0) {
+                final double rows = Math.min(count, lookups * Math.max(1, count * FILTER_SELECTIVITY));
+                return new Rows(rows, rows);
+            }
+            for (final Argument argument : field.getArguments())
+                if (!"first".equals(argument.getName()) && !"after".equals(argument.getName()) && hasArgument(
+                        field, argument.getName(), context))
+                    return new Rows(count, Math.max(1, count * FILTER_SELECTIVITY));
+            return new Rows(count, count);
+        }
+        if (parentType instanceof GraphQLObjectType && hasInterface((GraphQLObjectType) parentType, "Edge"))
+            return new Rows(1, 1);
+        if (parentType instanceof GraphQLObjectType && fieldType instanceof GraphQLObjectType && hasInterface(
+                (GraphQLObjectType) fieldType, "Edge")) {
+            final long parentCount = getCount(parentType);
+            final double fanOut = parentCount > 0 ? Math.max(1, (double) getCount(fieldType) / parentCount) :
+                                  averageDegree;
+            return new Rows(fanOut, fanOut);
+        }
+        if ("_edges".equals(field.getName()))
+            return new Rows(averageDegree, averageDegree);
+        return new Rows(1, 1);
+    }
+
+    /**
+     * Returns the number of index lookups the arguments and filter of a label endpoint are resolved with, or 0 if the
+     * label is scanned.
+     */
+    private int getLookupCount(final Field field, final GraphQLCompositeType fieldType, final Context context) {
+        if (!(fieldType instanceof GraphQLObjectType))
+            return 0;
+        final GraphQLObjectType type = (GraphQLObjectType) fieldType;
+        final boolean isNode = hasInterface(type, "Node");
+        if (!isNode && !hasInterface(type, "Edge"))
+            return 0;
+        final String label = QueryPlanner.TypeDescriptor.getGraphLabel(type);
+        final Set<String> argumentKeys = new HashSet<>();
+        for (final Argument argument : field.getArguments()) {
+            final String name = argument.getName();
+            if (!"first".equals(name) && !"after".equals(name) && !WhereFilter.WHERE_ARGUMENT.equals(name) &&
+                !GraphQLSchemaWriter.GROUP_BY_ARGUMENT.equals(name) && hasArgument(field, name, context))
+                argumentKeys.add(QueryPlanner.translatePropertyKey(name));
+        }
+        final Predicate<String> isIndexed = key -> indexLookup.isIndexed(isNode, label, key);
+        try {
+            return WhereFilter.parse(field.getArguments(), context.variables).getLookupCount(argumentKeys, isIndexed);
+        } catch (GraphQLException e) {
+            // Invalid filters are reported by the execution
+            return 0;
+        }
+    }
+
+    private long getCount(final GraphQLCompositeType type) {
+        final Long count = typeCounts.get(type.getName());
+        if (count != null)
+            return count;
+        long sum = 0;
+        for (final GraphQLNamedType namedType : schema.getAllTypesAsList())
+            if (namedType instanceof GraphQLObjectType && hasInterface((GraphQLObjectType) namedType, type.getName()))
+                sum += typeCounts.getOrDefault(namedType.getName(), 0L);
+        return sum;
+    }
+
+    private boolean hasArgument(final Field field, final String name, final Context context) {
+        return getArgumentValue(field, name, context) != null;
+    }
+
+    private Object getArgumentValue(final Field field, final String name, final Context context) {
+        Value<?> value = null;
+        for (final Argument argument : field.getArguments())
+            if (name.equals(argument.getName()))
+                value = argument.getValue();
+        if (value instanceof VariableReference)
+            return context.variables.get(((VariableReference) value).getName());
+        if (value instanceof NullValue)
+            return null;
+        if (value instanceof IntValue)
+            return ((IntValue) value).getValue();
+        return value;
+    }
+
+    private static boolean hasInterface(final GraphQLObjectType type, final String interfaceName) {
+        final List<GraphQLNamedOutputType> interfaces = type.getInterfaces();
+        for (final GraphQLNamedOutputType i : interfaces)
+            if (interfaceName.equals(i.getName()))
+                return true;
+        return false;
+    }
+
+    private static GraphQLType unwrapType(GraphQLType type) {
+        while (type instanceof GraphQLModifiedType)
+            type = ((GraphQLModifiedType) type).getWrappedType();
+        return type;
+    }
+}
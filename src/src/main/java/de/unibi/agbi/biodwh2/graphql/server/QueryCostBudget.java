@@ -0,0 +1,35 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estimated cost shared by all operations of a batch request. Operations consume their cost when they start
+ * executing, so operations exceeding the remaining budget are rejected while the others still complete.
+ */
+final class QueryCostBudget {
+    private final long maxCost;
+    private final AtomicLong consumed = new AtomicLong();
+
+    QueryCostBudget(final long maxCost) {
+        this.maxCost = maxCost;
+    }
+
+    boolean tryConsume(final double cost) {
+        final long amount = (long) Math.min(Math.ceil(cost), Long.MAX_VALUE);
+        while (true) {
+            final long current = consumed.get();
+            if (amount > maxCost - current)
+                return false;
+            if (consumed.compareAndSet(current, current + amount))
+                return true;
+        }
+    }
+
+    long getMaxCost() {
+        return maxCost;
+    }
+
+    long getConsumed() {
+        return consumed.get();
+    }
+}
@@ -0,0 +1,83 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.ErrorType;
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.schema.GraphQLSchema;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rejects operations whose estimated cost or nesting depth exceeds the configured limits before any data is fetched.
+ * Limits less than or equal to zero are disabled.
+ */
+final class QueryCostInstrumentation extends SimpleInstrumentation {
+    private final long maxCost;
+    private final int maxDepth;
+    private final QueryCostAnalyzer.IndexLookup indexLookup;
+    private volatile QueryCostAnalyzer analyzer;
+
+    QueryCostInstrumentation(final long maxCost, final int maxDepth, final QueryCostAnalyzer.IndexLookup indexLookup) {
+        this.maxCost = maxCost;
+        this.maxDepth = maxDepth;
+        this.indexLookup = indexLookup;
+    }
+
+    @Override
+    public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+            final InstrumentationExecuteOperationParameters parameters) {
+        final ExecutionContext context = parameters.getExecutionContext();
+        final QueryCostAnalyzer.QueryCost cost = getAnalyzer(context.getGraphQLSchema()).estimate(
+                context.getOperationDefinition(), context.getFragmentsByName(),
+                context.getCoercedVariables().toMap());
+        if ((maxCost > 0 && cost.cost > maxCost) || (maxDepth > 0 && cost.depth > maxDepth))
+            throw new AbortExecutionException(Collections.singletonList(buildError(cost)));
+        final QueryCostBudget budget = context.getGraphQLContext().get(QueryCostBudget.class);
+        if (budget != null && !budget.tryConsume(cost.cost))
+            throw new AbortExecutionException(Collections.singletonList(buildBudgetError(cost, budget)));
+        return super.beginExecuteOperation(parameters);
+    }
+
+    QueryCostAnalyzer getAnalyzer(final GraphQLSchema schema) {
+        if (analyzer == null)
+            analyzer = new QueryCostAnalyzer(schema, indexLookup);
+        return analyzer;
+    }
+
+    private GraphQLError buildError(final QueryCostAnalyzer.QueryCost cost) {
+        final boolean tooDeep = maxDepth > 0 && cost.depth > maxDepth;
+        final Map<String, Object> extensions = new HashMap<>();
+        extensions.put("code", tooDeep ? "QUERY_TOO_DEEP" : "QUERY_TOO_EXPENSIVE");
+        extensions.put("estimatedCost", (long) Math.min(cost.cost, Long.MAX_VALUE));
+        extensions.put("maxCost", maxCost);
+        extensions.put("depth", cost.depth);
+        extensions.put("maxDepth", maxDepth);
+        final String message;
+        if (tooDeep)
+            message = "Query depth " + cost.depth + " exceeds the maximum depth of " + maxDepth;
+        else
+            message = "Estimated query cost " + (long) cost.cost + " exceeds the maximum cost of " + maxCost;
+        return GraphqlErrorBuilder.newError().message(message).errorType(ErrorType.ExecutionAborted).extensions(
+                extensions).build();
+    }
+
+    private static GraphQLError buildBudgetError(final QueryCostAnalyzer.QueryCost cost,
+                                                 final QueryCostBudget budget) {
+        final Map<String, Object> extensions = new HashMap<>();
+        extensions.put("code", "BATCH_TOO_EXPENSIVE");
+        extensions.put("estimatedCost", (long) Math.min(cost.cost, Long.MAX_VALUE));
+        extensions.put("maxBatchCost", budget.getMaxCost());
+        final String message = "Estimated query cost " + (long) cost.cost + " exceeds the remaining batch budget of " +
+                               Math.max(0, budget.getMaxCost() - budget.getConsumed());
+        return GraphqlErrorBuilder.newError().message(message).errorType(ErrorType.ExecutionAborted).extensions(
+                extensions).build();
+    }
+}
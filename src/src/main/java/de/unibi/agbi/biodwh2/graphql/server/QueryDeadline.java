@@ -0,0 +1,37 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.GraphQLException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline of a single query execution. It is passed to the data fetchers through the GraphQL context and checked
+ * while iterating the graph, so timed out or cancelled queries stop reading further models.
+ */
+final class QueryDeadline {
+    static final QueryDeadline NONE = new QueryDeadline(0);
+
+    private final long timeoutMillis;
+    private final long deadlineNanos;
+    private volatile boolean cancelled;
+
+    QueryDeadline(final long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        deadlineNanos = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isExpired() {
+        return cancelled || (timeoutMillis > 0 && System.nanoTime() - deadlineNanos > 0);
+    }
+
+    void check() {
+        if (cancelled)
+            throw new GraphQLException("Query execution was cancelled");
+        if (timeoutMillis > 0 && System.nanoTime() - deadlineNanos > 0)
+            throw new GraphQLException("Query execution timed out after " + timeoutMillis + " ms");
+    }
+}
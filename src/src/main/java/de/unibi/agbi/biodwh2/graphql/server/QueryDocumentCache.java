@@ -0,0 +1,67 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of parsed and validated query documents keyed by the raw query text and operation name.
+ */
+final class QueryDocumentCache implements PreparsedDocumentProvider {
+    private final Cache<Key, PreparsedDocumentEntry> cache;
+
+    QueryDocumentCache(final long maximumSize) {
+        cache = Caffeine.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    @Override
+    public PreparsedDocumentEntry getDocument(final ExecutionInput executionInput,
+                                              final Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        final Key key = new Key(executionInput.getQuery(), executionInput.getOperationName());
+        return cache.get(key, k -> parseAndValidateFunction.apply(executionInput));
+    }
+
+    long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    long getSize() {
+        return cache.estimatedSize();
+    }
+
+    private static final class Key {
+        private final String query;
+        private final String operationName;
+        private final int hashCode;
+
+        Key(final String query, final String operationName) {
+            this.query = query;
+            this.operationName = operationName;
+            hashCode = Objects.hash(query, operationName);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key key = (Key) o;
+            return query.equals(key.query) && Objects.equals(operationName, key.operationName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
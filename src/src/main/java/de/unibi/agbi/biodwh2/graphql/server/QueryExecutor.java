@@ -0,0 +1,166 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes queries on a dedicated executor instead of the HTTP worker threads. Virtual threads are used where the
+ * JVM supports them, otherwise a fixed pool of platform threads. The number of queries in flight is bounded, so
+ * callers can reject further requests instead of queueing them. Independent fields of a query are resolved on a
+ * shared work-stealing pool with a per query parallelism cap.
+ */
+final class QueryExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryExecutor.class);
+
+    private final GraphQL graphQL;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final long timeoutMillis;
+    private final ForkJoinPool fieldPool;
+    private final int parallelism;
+
+    QueryExecutor(final GraphQL graphQL, final int threads, final int maxInFlight, final long timeoutMillis,
+                  final int parallelism) {
+        this.graphQL = graphQL;
+        executor = createExecutor(threads);
+        this.maxInFlight = maxInFlight;
+        inFlight = new Semaphore(maxInFlight);
+        this.timeoutMillis = timeoutMillis;
+        this.parallelism = parallelism;
+        fieldPool = parallelism > 1 ? createFieldPool() : null;
+    }
+
+    private static ForkJoinPool createFieldPool() {
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("field-resolver-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    private static ExecutorService createExecutor(final int threads) {
+        if (threads <= 0) {
+            try {
+                final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                final ExecutorService executor = (ExecutorService) method.invoke(null);
+                if (LOGGER.isInfoEnabled())
+                    LOGGER.info("Executing queries on virtual threads");
+                return executor;
+            } catch (ReflectiveOperationException ignored) {
+            }
+        }
+        final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors() * 2;
+        if (LOGGER.isInfoEnabled())
+            LOGGER.info("Executing queries on " + poolSize + " threads");
+        final AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(poolSize, runnable -> {
+            final Thread thread = new Thread(runnable, "query-executor-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Tries to reserve a slot for a query. Each successful call has to be followed by a call to
+     * {@link #execute(ExecutionInput.Builder)} which releases the slot once the query completed.
+     */
+    boolean tryAcquire() {
+        return inFlight.tryAcquire();
+    }
+
+    /**
+     * Tries to reserve slots for all operations of a batch at once, so a batch is either executed completely or
+     * rejected. Each slot is released by one call to {@link #execute(ExecutionInput.Builder)}.
+     */
+    boolean tryAcquire(final int queries) {
+        return inFlight.tryAcquire(queries);
+    }
+
+    CompletableFuture<ExecutionResult> execute(final ExecutionInput.Builder builder) {
+        final QueryDeadline deadline = new QueryDeadline(timeoutMillis);
+        builder.graphQLContext(context -> context.of(QueryDeadline.class, deadline, FieldScheduler.class,
+                                                     createFieldScheduler()));
+        final ExecutionInput executionInput = builder.build();
+        final CompletableFuture<ExecutionResult> future = new CompletableFuture<>();
+        future.whenComplete((result, throwable) -> {
+            if (throwable != null)
+                deadline.cancel();
+        });
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(graphQL.execute(executionInput));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * Runs a task executing several queries one after another in a single slot, such as the payloads of an
+     * incremental delivery. The slot has to be reserved using {@link #tryAcquire()} and is released once the task
+     * completed.
+     */
+    CompletableFuture<Void> run(final Runnable task) {
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.release();
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Executes a query on the calling thread. Only used by tasks started using {@link #run(Runnable)}, which share one
+     * deadline across all queries they execute.
+     */
+    ExecutionResult executeInline(final ExecutionInput.Builder builder, final QueryDeadline deadline) {
+        builder.graphQLContext(context -> context.of(QueryDeadline.class, deadline, FieldScheduler.class,
+                                                     createFieldScheduler()));
+        return graphQL.execute(builder.build());
+    }
+
+    private FieldScheduler createFieldScheduler() {
+        return fieldPool != null ? new FieldScheduler(fieldPool, parallelism) : FieldScheduler.SEQUENTIAL;
+    }
+
+    /**
+     * Stops the executors. Queries still executing are interrupted.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        if (fieldPool != null)
+            fieldPool.shutdownNow();
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+}
@@ -0,0 +1,339 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphSchema;
+import graphql.language.*;
+import graphql.schema.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Compiles the executable schema into immutable type descriptors once and selection sets into field plans per type.
+ * Plans are cached by the identity of the selection set, so documents served from the query document cache reuse
+ * their plans and the per-row resolution does neither string manipulation nor schema lookups.
+ */
+final class QueryPlanner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryPlanner.class);
+    static final String TYPENAME_FIELD = "__typename";
+    static final String AGGREGATE_DIRECTIVE = "GraphAggregate";
+    /**
+     * Edge properties stored in the adjacency index, which can be selected without reading the edge from the graph.
+     */
+    static final Set<String> STRUCTURAL_PROPERTY_KEYS = new HashSet<>(
+            Arrays.asList("__id", "__label", "__from_id", "__to_id"));
+
+    private final Cache<SelectionSet, AtomicReferenceArray<SelectionPlan>> plans;
+    private final Cache<SelectionSet, SelectionSet> connectionNodeSelectionSets;
+    private volatile TypeTable types;
+
+    QueryPlanner() {
+        plans = Caffeine.newBuilder().weakKeys().build();
+        connectionNodeSelectionSets = Caffeine.newBuilder().weakKeys().build();
+    }
+
+    TypeTable getTypes(final GraphQLSchema schema) {
+        if (types == null)
+            types = new TypeTable(schema);
+        return types;
+    }
+
+    /**
+     * Returns the fields selected for models of the given type. Inline fragments and fragment spreads are merged at plan
+     * time. The fragments have to be the definitions of the document the selection set belongs to.
+     */
+    SelectionPlan getPlan(final SelectionSet selectionSet, final TypeDescriptor type,
+                          final Map<String, FragmentDefinition> fragments) {
+        final AtomicReferenceArray<SelectionPlan> typePlans = plans.get(selectionSet,
+                                                                        k -> new AtomicReferenceArray<>(
+                                                                                types.descriptors.length));
+        SelectionPlan plan = typePlans.get(type.ordinal);
+        if (plan == null) {
+            final List<String> keys = new ArrayList<>();
+            keys.add(TYPENAME_FIELD);
+            final List<FieldPlan> fields = new ArrayList<>();
+            compilePlan(selectionSet, type, fragments, keys, fields);
+            boolean requiresModel = false;
+            for (final FieldPlan field : fields)
+                requiresModel |= requiresModel(field.descriptor);
+            plan = new SelectionPlan(fields.toArray(new FieldPlan[0]), new ResultRow.Layout(keys), requiresModel);
+            typePlans.set(type.ordinal, plan);
+        }
+        return plan;
+    }
+
+    private static boolean requiresModel(final FieldDescriptor descriptor) {
+        switch (descriptor.kind) {
+            case TYPENAME:
+            case RELATION:
+                return false;
+            case PROPERTY:
+                return !STRUCTURAL_PROPERTY_KEYS.contains(descriptor.propertyKey);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Merges the selections of all "edges { node { ... } }" fields of a connection selection set, so the nodes of a
+     * page can be selected like a plain list.
+     */
+    SelectionSet getConnectionNodeSelectionSet(final SelectionSet selectionSet) {
+        return connectionNodeSelectionSets.get(selectionSet, QueryPlanner::mergeConnectionNodeSelections);
+    }
+
+    private static SelectionSet mergeConnectionNodeSelections(final SelectionSet selectionSet) {
+        final List<Selection> selections = new ArrayList<>();
+        for (final Selection<?> edgesSelection : selectionSet.getSelections())
+            if (edgesSelection instanceof Field && "edges".equals(((Field) edgesSelection).getName()))
+                for (final Selection<?> nodeSelection : ((Field) edgesSelection).getSelectionSet().getSelections())
+                    if (nodeSelection instanceof Field && "node".equals(((Field) nodeSelection).getName()))
+                        selections.addAll(((Field) nodeSelection).getSelectionSet().getSelections());
+        return SelectionSet.newSelectionSet(selections).build();
+    }
+
+    private void compilePlan(final SelectionSet selectionSet, final TypeDescriptor type,
+                             final Map<String, FragmentDefinition> fragments, final List<String> keys,
+                             final List<FieldPlan> fields) {
+        for (final Selection<?> selection : selectionSet.getSelections()) {
+            if (selection instanceof Field) {
+                final Field field = (Field) selection;
+                final FieldDescriptor descriptor = type.fields.get(field.getName());
+                if (descriptor != null) {
+                    int slot = keys.indexOf(field.getResultKey());
+                    if (slot < 0) {
+                        slot = keys.size();
+                        keys.add(field.getResultKey());
+                    }
+                    fields.add(new FieldPlan(field, descriptor, slot));
+                }
+            } else if (selection instanceof InlineFragment) {
+                final InlineFragment fragment = (InlineFragment) selection;
+                // Fragments without type condition apply to the enclosing type
+                if (fragment.getTypeCondition() == null || fragment.getTypeCondition().getName().equals(type.name))
+                    compilePlan(fragment.getSelectionSet(), type, fragments, keys, fields);
+            } else if (selection instanceof FragmentSpread) {
+                final FragmentDefinition fragment = fragments.get(((FragmentSpread) selection).getName());
+                if (fragment != null && fragment.getTypeCondition().getName().equals(type.name))
+                    compilePlan(fragment.getSelectionSet(), type, fragments, keys, fields);
+            } else if (LOGGER.isErrorEnabled())
+                LOGGER.error("Failed to select results for selection '" + selection + "'");
+        }
+    }
+
+    static String translatePropertyKey(final String key) {
+        if ("_id".equals(key) || "_to_id".equals(key) || "_from_id".equals(key) || "_label".equals(key) ||
+            "_mapped".equals(key))
+            return '_' + key;
+        return key;
+    }
+
+    enum FieldKind {
+        TYPENAME,
+        PROPERTY,
+        RELATION,
+        COUNT,
+        AGGREGATE
+    }
+
+    /**
+     * Immutable lookup tables from type names and graph labels to their descriptors.
+     */
+    static final class TypeTable {
+        private final TypeDescriptor[] descriptors;
+        private final Map<String, TypeDescriptor> byName = new HashMap<>();
+        private final Map<String, TypeDescriptor> byGraphLabel = new HashMap<>();
+
+        private TypeTable(final GraphQLSchema schema) {
+            final List<TypeDescriptor> list = new ArrayList<>();
+            for (final GraphQLNamedType namedType : schema.getAllTypesAsList())
+                if (namedType instanceof GraphQLImplementingType && !namedType.getName().startsWith("__"))
+                    list.add(new TypeDescriptor(list.size(), (GraphQLImplementingType) namedType));
+            descriptors = list.toArray(new TypeDescriptor[0]);
+            for (final TypeDescriptor descriptor : descriptors) {
+                byName.put(descriptor.name, descriptor);
+                if (descriptor.type instanceof GraphQLObjectType)
+                    byGraphLabel.put(descriptor.graphLabel, descriptor);
+            }
+            for (final TypeDescriptor descriptor : descriptors)
+                descriptor.resolveFields(this);
+        }
+
+        TypeDescriptor get(final String typeName) {
+            return byName.get(typeName);
+        }
+
+        TypeDescriptor get(final GraphQLType type) {
+            return byName.get(((GraphQLNamedType) type).getName());
+        }
+
+        /**
+         * Returns the descriptor for the raw label stored in the graph.
+         */
+        TypeDescriptor getForGraphLabel(final String label) {
+            final TypeDescriptor descriptor = byGraphLabel.get(label);
+            return descriptor != null ? descriptor : byName.get(GraphSchema.BaseType.fixLabel(label));
+        }
+    }
+
+    static final class TypeDescriptor {
+        final int ordinal;
+        final String name;
+        final String graphLabel;
+        final GraphQLImplementingType type;
+        final boolean isNode;
+        final boolean isEdge;
+        final boolean isConnection;
+        /**
+         * Number of models with this label stored in the GraphStatistics directive or -1 if unknown.
+         */
+        final long count;
+        final Map<String, FieldDescriptor> fields = new HashMap<>();
+
+        private TypeDescriptor(final int ordinal, final GraphQLImplementingType type) {
+            this.ordinal = ordinal;
+            this.type = type;
+            name = type.getName();
+            graphLabel = getGraphLabel(type);
+            isNode = hasInterface(type, "Node");
+            isEdge = hasInterface(type, "Edge");
+            isConnection = hasInterface(type, "Connection");
+            count = getCount(type);
+        }
+
+        private static long getCount(final GraphQLImplementingType type) {
+            if (type instanceof GraphQLObjectType) {
+                final GraphQLAppliedDirective directive = ((GraphQLObjectType) type).getAppliedDirective(
+                        "GraphStatistics");
+                if (directive != null && directive.getArgument("count").getValue() instanceof Number)
+                    return ((Number) directive.getArgument("count").getValue()).longValue();
+            }
+            return -1;
+        }
+
+        static String getGraphLabel(final GraphQLImplementingType type) {
+            if (type instanceof GraphQLObjectType) {
+                final GraphQLAppliedDirective directive = ((GraphQLObjectType) type).getAppliedDirective("GraphLabel");
+                if (directive != null)
+                    return directive.getArgument("value").getValue();
+            }
+            return type.getName();
+        }
+
+        private static boolean hasInterface(final GraphQLImplementingType type, final String interfaceName) {
+            for (final GraphQLNamedOutputType implemented : type.getInterfaces())
+                if (interfaceName.equals(implemented.getName()))
+                    return true;
+            return false;
+        }
+
+        private void resolveFields(final TypeTable table) {
+            fields.put(TYPENAME_FIELD, new FieldDescriptor(TYPENAME_FIELD, FieldKind.TYPENAME, null, null, false));
+            for (final GraphQLFieldDefinition definition : type.getFieldDefinitions()) {
+                final GraphQLType fieldType = GraphQLTypeUtil.unwrapAll(definition.getType());
+                final GraphQLAppliedDirective aggregate = definition.getAppliedDirective(AGGREGATE_DIRECTIVE);
+                final FieldDescriptor descriptor;
+                if (aggregate != null) {
+                    final String targetName = aggregate.getArgument("type").getValue();
+                    final FieldKind kind = fieldType instanceof GraphQLScalarType ? FieldKind.COUNT :
+                                           FieldKind.AGGREGATE;
+                    descriptor = new FieldDescriptor(definition.getName(), kind, null, table.get(targetName), false,
+                                                     getAggregateValueFields(fieldType));
+                } else if (fieldType instanceof GraphQLScalarType)
+                    descriptor = new FieldDescriptor(definition.getName(), FieldKind.PROPERTY,
+                                                     translatePropertyKey(definition.getName()), null, false);
+                else if (fieldType instanceof GraphQLImplementingType)
+                    descriptor = new FieldDescriptor(definition.getName(), FieldKind.RELATION, null, table.get(
+                            fieldType), "_to".equals(definition.getName()));
+                else
+                    continue;
+                fields.put(definition.getName(), descriptor);
+            }
+        }
+
+        private static String[] getAggregateValueFields(final GraphQLType aggregateType) {
+            if (!(aggregateType instanceof GraphQLObjectType))
+                return new String[0];
+            final GraphQLFieldDefinition min = ((GraphQLObjectType) aggregateType).getFieldDefinition("min");
+            if (min == null)
+                return new String[0];
+            final List<GraphQLFieldDefinition> definitions = ((GraphQLObjectType) GraphQLTypeUtil.unwrapAll(
+                    min.getType())).getFieldDefinitions();
+            final String[] names = new String[definitions.size()];
+            for (int i = 0; i < names.length; i++)
+                names[i] = definitions.get(i).getName();
+            return names;
+        }
+    }
+
+    static final class FieldDescriptor {
+        final String name;
+        final FieldKind kind;
+        final String propertyKey;
+        final TypeDescriptor target;
+        /**
+         * Whether a relation of an edge follows the target instead of the source node.
+         */
+        final boolean followsTarget;
+        /**
+         * Numeric fields of the minimum, maximum and average values of an aggregate field.
+         */
+        final String[] aggregateValueFields;
+
+        private FieldDescriptor(final String name, final FieldKind kind, final String propertyKey,
+                                final TypeDescriptor target, final boolean followsTarget) {
+            this(name, kind, propertyKey, target, followsTarget, null);
+        }
+
+        private FieldDescriptor(final String name, final FieldKind kind, final String propertyKey,
+                                final TypeDescriptor target, final boolean followsTarget,
+                                final String[] aggregateValueFields) {
+            this.name = name;
+            this.kind = kind;
+            this.propertyKey = propertyKey;
+            this.target = target;
+            this.followsTarget = followsTarget;
+            this.aggregateValueFields = aggregateValueFields;
+        }
+
+        /**
+         * Returns the graph label to filter relation edges by or null if the relation targets the edge interface.
+         */
+        String getTargetEdgeLabel() {
+            return target.isEdge ? target.graphLabel : null;
+        }
+    }
+
+    static final class SelectionPlan {
+        final FieldPlan[] fields;
+        final ResultRow.Layout layout;
+        /**
+         * Whether any selected field needs properties beyond the structural ones.
+         */
+        final boolean requiresModel;
+
+        private SelectionPlan(final FieldPlan[] fields, final ResultRow.Layout layout, final boolean requiresModel) {
+            this.fields = fields;
+            this.layout = layout;
+            this.requiresModel = requiresModel;
+        }
+    }
+
+    static final class FieldPlan {
+        final Field field;
+        final FieldDescriptor descriptor;
+        /**
+         * Index of the result key in the row layout. Fields with equal result keys share a slot.
+         */
+        final int slot;
+
+        private FieldPlan(final Field field, final FieldDescriptor descriptor, final int slot) {
+            this.field = field;
+            this.descriptor = descriptor;
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.graphql.server.model.RequestBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends a random sample of the executed requests to a newline-delimited JSON file, so real workloads can be
+ * replayed against other workspaces or server versions. Persisted queries are captured with their resolved query
+ * text. Request threads only serialize the entry and hand it to a bounded queue. A background thread writes the lines
+ * and flushes whenever the queue runs empty, so the file stays usable if the server is killed. Entries are dropped
+ * instead of blocking requests if the writer falls behind.
+ */
+final class RequestCapture {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestCapture.class);
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+    private static final byte[] END_OF_CAPTURE = new byte[0];
+
+    private final OutputStream outputStream;
+    private final double sampleRate;
+    private final BlockingQueue<byte[]> lines = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean failed;
+
+    private RequestCapture(final OutputStream outputStream, final double sampleRate) {
+        this.outputStream = outputStream;
+        this.sampleRate = sampleRate;
+        writerThread = new Thread(this::writeLines, "request-capture");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Opens the capture file for appending. Returns null if the file cannot be opened or nothing would be sampled.
+     */
+    static RequestCapture open(final Path filePath, final double sampleRate) {
+        if (sampleRate <= 0)
+            return null;
+        try {
+            final OutputStream outputStream = Files.newOutputStream(filePath, StandardOpenOption.CREATE,
+                                                                    StandardOpenOption.APPEND);
+            if (LOGGER.isInfoEnabled())
+                LOGGER.info("Capturing " + (sampleRate * 100) + "% of requests to '" + filePath + "'");
+            return new RequestCapture(new BufferedOutputStream(outputStream, 65536), sampleRate);
+        } catch (IOException e) {
+            if (LOGGER.isWarnEnabled())
+                LOGGER.warn("Failed to open request capture file '" + filePath + "'", e);
+            return null;
+        }
+    }
+
+    void capture(final RequestBody body) {
+        if (failed || sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)
+            return;
+        final Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("timestamp", System.currentTimeMillis());
+        entry.put("operationName", body.operationName);
+        entry.put("query", body.query);
+        entry.put("variables", body.variables);
+        try {
+            if (!lines.offer(JsonResponseWriter.MAPPER.writeValueAsBytes(entry)))
+                droppedCount.incrementAndGet();
+        } catch (IOException e) {
+            if (LOGGER.isWarnEnabled())
+                LOGGER.warn("Failed to serialize captured request", e);
+        }
+    }
+
+    private void writeLines() {
+        try {
+            for (byte[] line = lines.take(); line != END_OF_CAPTURE; line = lines.take()) {
+                if (failed)
+                    continue;
+                try {
+                    outputStream.write(line);
+                    outputStream.write('\n');
+                    if (lines.isEmpty())
+                        outputStream.flush();
+                } catch (IOException e) {
+                    // Stop capturing after the first failure instead of logging one per request
+                    if (LOGGER.isWarnEnabled())
+                        LOGGER.warn("Failed to capture request", e);
+                    failed = true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of sampled requests dropped because the writer could not keep up.
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Writes the remaining queued lines and closes the capture file.
+     */
+    void close() {
+        try {
+            lines.put(END_OF_CAPTURE);
+            writerThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            if (LOGGER.isWarnEnabled())
+                LOGGER.warn("Failed to close request capture file", e);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import graphql.language.AstPrinter;
+import graphql.parser.InvalidSyntaxException;
+import graphql.parser.Parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of serialized query responses. The served graph is opened read-only and tied to one workspace hash, so a
+ * response only depends on the normalized query document, the operation name and the variables. Entries are weighed
+ * by their serialized size and evicted using Caffeine's W-TinyLFU policy.
+ */
+final class ResponseCache {
+    static final ObjectMapper CANONICAL_MAPPER = new ObjectMapper().enable(
+            SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    private final String workspaceHash;
+    private final long maxEntryBytes;
+    private final Cache<Key, byte[]> cache;
+    private final Cache<String, String> normalizedQueries;
+
+    ResponseCache(final String workspaceHash, final long maximumBytes) {
+        this.workspaceHash = workspaceHash;
+        maxEntryBytes = Math.max(1, maximumBytes / 16);
+        cache = Caffeine.newBuilder().maximumWeight(maximumBytes).<Key, byte[]>weigher(
+                (key, value) -> key.weight() + value.length).recordStats().build();
+        normalizedQueries = Caffeine.newBuilder().maximumSize(1000).build();
+    }
+
+    Key createKey(final String query, final String operationName, final Map<String, Object> variables) {
+        final String normalizedQuery = normalizedQueries.get(query, ResponseCache::normalizeQuery);
+        if (normalizedQuery == null)
+            return null;
+        try {
+            final String canonicalVariables = variables != null ? CANONICAL_MAPPER.writeValueAsString(variables) : "";
+            return new Key(workspaceHash, normalizedQuery, operationName, canonicalVariables);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    private static String normalizeQuery(final String query) {
+        try {
+            return AstPrinter.printAstCompact(Parser.parse(query));
+        } catch (InvalidSyntaxException e) {
+            return null;
+        }
+    }
+
+    byte[] get(final Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Wraps the response output stream so the written response is captured for the cache as long as it does not
+     * exceed the maximum entry size.
+     */
+    CapturingOutputStream capture(final OutputStream outputStream) {
+        return new CapturingOutputStream(outputStream, maxEntryBytes);
+    }
+
+    void put(final Key key, final CapturingOutputStream capture) {
+        final byte[] response = capture.getCaptured();
+        if (response != null)
+            cache.put(key, response);
+    }
+
+    long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    long getWeightedSize() {
+        return cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    static final class Key {
+        private final String workspaceHash;
+        private final String query;
+        private final String operationName;
+        private final String variables;
+        private final int hashCode;
+
+        Key(final String workspaceHash, final String query, final String operationName, final String variables) {
+            this.workspaceHash = workspaceHash;
+            this.query = query;
+            this.operationName = operationName;
+            this.variables = variables;
+            hashCode = Objects.hash(workspaceHash, query, operationName, variables);
+        }
+
+        int weight() {
+            return 2 * (query.length() + variables.length() + (operationName != null ? operationName.length() : 0));
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            final Key key = (Key) o;
+            return workspaceHash.equals(key.workspaceHash) && query.equals(key.query) && Objects.equals(
+                    operationName, key.operationName) && variables.equals(key.variables);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    static final class CapturingOutputStream extends FilterOutputStream {
+        private final long limit;
+        private ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        CapturingOutputStream(final OutputStream outputStream, final long limit) {
+            super(outputStream);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            if (captured != null) {
+                captured.write(b);
+                checkLimit();
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            if (captured != null) {
+                captured.write(b, off, len);
+                checkLimit();
+            }
+        }
+
+        private void checkLimit() {
+            if (captured.size() > limit)
+                captured = null;
+        }
+
+        byte[] getCaptured() {
+            return captured != null ? captured.toByteArray() : null;
+        }
+    }
+}
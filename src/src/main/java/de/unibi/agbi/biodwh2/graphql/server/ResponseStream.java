@@ -0,0 +1,60 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import io.javalin.http.Context;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output stream of a response written directly into the servlet output stream. These responses bypass the compression
+ * Javalin applies to results, so they are compressed using gzip here if the client accepts it. The gzip stream is
+ * flushed with every flush of this stream, so streamed payloads still reach the client as soon as they are written.
+ * Bytes are counted after compression as they are sent.
+ */
+final class ResponseStream extends FilterOutputStream {
+    private static final int GZIP_BUFFER_SIZE = 65536;
+
+    private final ServerMetrics.CountingOutputStream countingStream;
+    private final GZIPOutputStream gzipStream;
+
+    private ResponseStream(final ServerMetrics.CountingOutputStream countingStream,
+                           final GZIPOutputStream gzipStream) {
+        super(gzipStream != null ? gzipStream : countingStream);
+        this.countingStream = countingStream;
+        this.gzipStream = gzipStream;
+    }
+
+    /**
+     * Opens the response output stream. Headers have to be set before, as the response may be committed once the
+     * first bytes are written.
+     */
+    static ResponseStream open(final Context ctx) throws IOException {
+        final ServerMetrics.CountingOutputStream countingStream = new ServerMetrics.CountingOutputStream(
+                ctx.res.getOutputStream());
+        ctx.res.addHeader("Vary", "Accept-Encoding");
+        if (!StringUtils.contains(ctx.header("Accept-Encoding"), "gzip"))
+            return new ResponseStream(countingStream, null);
+        ctx.header("Content-Encoding", "gzip");
+        return new ResponseStream(countingStream, new GZIPOutputStream(countingStream, GZIP_BUFFER_SIZE, true));
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    /**
+     * Completes the response by writing the gzip trailer if compressed and flushing the remaining bytes.
+     */
+    void finish() throws IOException {
+        if (gzipStream != null)
+            gzipStream.finish();
+        out.flush();
+    }
+
+    long getCount() {
+        return countingStream.getCount();
+    }
+}
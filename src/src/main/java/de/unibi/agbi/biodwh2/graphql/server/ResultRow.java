@@ -0,0 +1,89 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import java.util.*;
+
+/**
+ * Flyweight result of one node or edge. The result keys are stored once per selection plan in a shared layout, so
+ * each row only holds its values.
+ */
+final class ResultRow extends AbstractMap<String, Object> {
+    private final Layout layout;
+    private final Object[] values;
+
+    ResultRow(final Layout layout) {
+        this.layout = layout;
+        values = new Object[layout.keys.length];
+    }
+
+    void set(final int slot, final Object value) {
+        values[slot] = value;
+    }
+
+    @Override
+    public Object get(final Object key) {
+        final int slot = layout.getSlot(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return layout.getSlot(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String, Object>>() {
+                    private int slot;
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (slot >= values.length)
+                            throw new NoSuchElementException();
+                        final Entry<String, Object> entry = new SimpleImmutableEntry<>(layout.keys[slot],
+                                                                                        values[slot]);
+                        slot++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    /**
+     * Result keys of one selection plan in slot order.
+     */
+    static final class Layout {
+        private final String[] keys;
+        private final Map<String, Integer> slots;
+
+        Layout(final List<String> keys) {
+            this.keys = keys.toArray(new String[0]);
+            slots = new HashMap<>(keys.size() * 2);
+            for (int i = 0; i < this.keys.length; i++)
+                slots.put(this.keys[i], i);
+        }
+
+        int getSlot(final Object key) {
+            final Integer slot = slots.get(key);
+            return slot != null ? slot : -1;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Collects request, operation, field and graph call timings and exposes them in the Prometheus text format.
+ */
+final class ServerMetrics {
+    static final String CONTENT_TYPE = TextFormat.CONTENT_TYPE_004;
+    private static final String PREFIX = "biodwh2_graphql_";
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final int MAX_OPERATION_NAMES = 100;
+    private static final String OTHER_OPERATION = "other";
+    private static final String ANONYMOUS_OPERATION = "anonymous";
+    private static final double[] LATENCY_BUCKETS = {
+            0.0001, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private final CollectorRegistry registry = new CollectorRegistry(true);
+    private final Set<String> operationNames = ConcurrentHashMap.newKeySet();
+    private final Histogram requestDuration;
+    private final Histogram responseSize;
+    private final Histogram operationDuration;
+    private final Histogram fieldDuration;
+    private final Histogram graphCallDuration;
+    private final Histogram graphCallRows;
+
+    ServerMetrics() {
+        requestDuration = Histogram.build().name(PREFIX + "request_duration_seconds").help(
+                "Duration of GraphQL HTTP requests").labelNames("outcome").buckets(LATENCY_BUCKETS).register(registry);
+        responseSize = Histogram.build().name(PREFIX + "response_size_bytes").help(
+                "Size of GraphQL HTTP responses").exponentialBuckets(256, 4, 10).register(registry);
+        operationDuration = Histogram.build().name(PREFIX + "operation_duration_seconds").help(
+                "Duration of GraphQL operation executions").labelNames("operation").buckets(LATENCY_BUCKETS)
+                                     .register(registry);
+        fieldDuration = Histogram.build().name(PREFIX + "field_duration_seconds").help(
+                "Duration of root field fetches and batched relation field resolutions").labelNames("kind", "field")
+                                 .buckets(LATENCY_BUCKETS).register(registry);
+        graphCallDuration = Histogram.build().name(PREFIX + "graph_call_duration_seconds").help(
+                "Time spent in graph lookups including iterating their results").labelNames("call").buckets(
+                LATENCY_BUCKETS).register(registry);
+        graphCallRows = Histogram.build().name(PREFIX + "graph_call_rows").help(
+                "Number of rows read from the graph per lookup").labelNames("call").exponentialBuckets(1, 4, 12)
+                                 .register(registry);
+    }
+
+    void observeRequest(final String outcome, final long nanos, final long bytes) {
+        requestDuration.labels(outcome).observe(nanos / NANOS_PER_SECOND);
+        if (bytes >= 0)
+            responseSize.observe(bytes);
+    }
+
+    void observeOperation(final String operationName, final long nanos) {
+        operationDuration.labels(getOperationLabel(operationName)).observe(nanos / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Operation names are chosen by clients, so only a bounded number of distinct names is kept as label values.
+     */
+    private String getOperationLabel(final String operationName) {
+        if (operationName == null || operationName.isEmpty())
+            return ANONYMOUS_OPERATION;
+        if (operationNames.contains(operationName))
+            return operationName;
+        if (operationNames.size() < MAX_OPERATION_NAMES && operationNames.add(operationName))
+            return operationName;
+        return OTHER_OPERATION;
+    }
+
+    void observeField(final String kind, final String fieldName, final long nanos) {
+        fieldDuration.labels(kind, fieldName).observe(nanos / NANOS_PER_SECOND);
+    }
+
+    void observeGraphCall(final String call, final long nanos, final long rows) {
+        graphCallDuration.labels(call).observe(nanos / NANOS_PER_SECOND);
+        graphCallRows.labels(call).observe(rows);
+    }
+
+    void registerGauge(final String name, final String help, final DoubleSupplier supplier) {
+        new SupplierCollector(PREFIX + name, help, false, supplier).register(registry);
+    }
+
+    void registerCounter(final String name, final String help, final DoubleSupplier supplier) {
+        new SupplierCollector(PREFIX + name, help, true, supplier).register(registry);
+    }
+
+    void write(final Writer writer) throws IOException {
+        TextFormat.write004(writer, registry.metricFamilySamples());
+    }
+
+    private static final class SupplierCollector extends Collector {
+        private final String name;
+        private final String help;
+        private final boolean counter;
+        private final DoubleSupplier supplier;
+
+        SupplierCollector(final String name, final String help, final boolean counter,
+                          final DoubleSupplier supplier) {
+            this.name = name;
+            this.help = help;
+            this.counter = counter;
+            this.supplier = supplier;
+        }
+
+        @Override
+        public List<MetricFamilySamples> collect() {
+            final double value = supplier.getAsDouble();
+            if (counter)
+                return Collections.singletonList(new CounterMetricFamily(name, help, value));
+            return Collections.singletonList(new GaugeMetricFamily(name, help, value));
+        }
+    }
+
+    static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(final OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
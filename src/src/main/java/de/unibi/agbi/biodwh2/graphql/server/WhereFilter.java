@@ -0,0 +1,332 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.io.mvstore.MVStoreModel;
+import graphql.GraphQLException;
+import graphql.language.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Evaluates the "_where" argument of query endpoints. Equality operators are merged into the property map passed to
+ * the graph, so its indices are used. The shortest "in" list on an indexed key is resolved as one equality lookup per
+ * value. All other operators are evaluated on the streamed lookup results.
+ */
+final class WhereFilter {
+    static final String WHERE_ARGUMENT = "_where";
+    static final WhereFilter NONE = new WhereFilter();
+
+    private final Map<String, Comparable<?>> equalities = new HashMap<>();
+    private final List<Condition> conditions = new ArrayList<>();
+
+    private WhereFilter() {
+    }
+
+    static WhereFilter parse(final List<Argument> arguments, final Map<String, Object> variables) {
+        for (final Argument argument : arguments)
+            if (WHERE_ARGUMENT.equals(argument.getName())) {
+                final Object where = convertValue(argument.getValue(), variables);
+                return where instanceof Map ? parse((Map<?, ?>) where) : NONE;
+            }
+        return NONE;
+    }
+
+    private static WhereFilter parse(final Map<?, ?> where) {
+        final WhereFilter filter = new WhereFilter();
+        for (final Map.Entry<?, ?> entry : where.entrySet()) {
+            if (!(entry.getValue() instanceof Map))
+                continue;
+            final String key = QueryPlanner.translatePropertyKey((String) entry.getKey());
+            for (final Map.Entry<?, ?> operator : ((Map<?, ?>) entry.getValue()).entrySet())
+                if (operator.getValue() != null)
+                    filter.addOperator(key, (String) operator.getKey(), operator.getValue());
+        }
+        return filter;
+    }
+
+    private void addOperator(final String key, final String operator, final Object value) {
+        switch (operator) {
+            case "eq":
+                equalities.put(key, normalize(key, value));
+                break;
+            case "in":
+                conditions.add(new InCondition(key, normalizeList(key, value)));
+                break;
+            case "gt":
+                final Comparable<?> lowerBound = normalize(key, value);
+                conditions.add(model -> {
+                    final Integer comparison = compare(model.getProperty(key), lowerBound);
+                    return comparison != null && comparison > 0;
+                });
+                break;
+            case "lt":
+                final Comparable<?> upperBound = normalize(key, value);
+                conditions.add(model -> {
+                    final Integer comparison = compare(model.getProperty(key), upperBound);
+                    return comparison != null && comparison < 0;
+                });
+                break;
+            case "between":
+                final List<Comparable<?>> bounds = normalizeList(key, value);
+                if (bounds.size() != 2)
+                    throw new GraphQLException("Operator 'between' of '" + key + "' requires exactly two values");
+                conditions.add(model -> {
+                    final Object property = model.getProperty(key);
+                    final Integer lower = compare(property, bounds.get(0));
+                    final Integer upper = compare(property, bounds.get(1));
+                    return lower != null && upper != null && lower >= 0 && upper <= 0;
+                });
+                break;
+            case "startsWith":
+                final String prefix = value.toString();
+                conditions.add(model -> {
+                    final Object property = model.getProperty(key);
+                    return property instanceof String && ((String) property).startsWith(prefix);
+                });
+                break;
+            default:
+                throw new GraphQLException("Unknown filter operator '" + operator + "'");
+        }
+    }
+
+    /**
+     * Selects the shortest "in" list on an indexed key not already restricted by equality to be resolved as per-value
+     * lookups. Splitting an unindexed key would turn a single label scan into one scan per value, so such lists are
+     * only evaluated on the streamed results.
+     */
+    private InCondition selectLookup(final Set<String> keys, final Predicate<String> isIndexed) {
+        InCondition lookup = null;
+        for (final Condition condition : conditions)
+            if (condition instanceof InCondition) {
+                final InCondition in = (InCondition) condition;
+                if (!keys.contains(in.key) && isIndexed.test(in.key) &&
+                    (lookup == null || in.values.size() < lookup.values.size()))
+                    lookup = in;
+            }
+        return lookup;
+    }
+
+    /**
+     * Resolves the filter using the given lookup.
+     *
+     * @param isIndexed tests whether lookups by a property key are served by an index
+     */
+    <T extends MVStoreModel> FilteredIterator<T> apply(final Map<String, Comparable<?>> arguments,
+                                                       final Lookup<T> lookup, final Predicate<String> isIndexed) {
+        final Map<String, Comparable<?>> properties = new HashMap<>(arguments);
+        for (final Map.Entry<String, Comparable<?>> equality : equalities.entrySet()) {
+            final Comparable<?> argument = properties.put(equality.getKey(), equality.getValue());
+            if (argument != null && !valueEquals(argument, equality.getValue()))
+                return new FilteredIterator<>(lookup, Collections.emptyList(), conditions);
+        }
+        final InCondition in = selectLookup(properties.keySet(), isIndexed);
+        if (in == null)
+            return new FilteredIterator<>(lookup, Collections.singletonList(properties), conditions);
+        final List<Map<String, Comparable<?>>> lookups = new ArrayList<>();
+        for (final Comparable<?> value : new LinkedHashSet<>(in.values)) {
+            final Map<String, Comparable<?>> valueProperties = new HashMap<>(properties);
+            valueProperties.put(in.key, value);
+            lookups.add(valueProperties);
+        }
+        final List<Condition> remainingConditions = new ArrayList<>(conditions);
+        remainingConditions.remove(in);
+        return new FilteredIterator<>(lookup, lookups, remainingConditions);
+    }
+
+    /**
+     * Returns the number of index lookups the filter is resolved with together with equality arguments of the given
+     * keys, or 0 if the label has to be scanned.
+     *
+     * @param isIndexed tests whether lookups by a property key are served by an index
+     */
+    int getLookupCount(final Set<String> argumentKeys, final Predicate<String> isIndexed) {
+        final Set<String> keys = new HashSet<>(argumentKeys);
+        keys.addAll(equalities.keySet());
+        final InCondition in = selectLookup(keys, isIndexed);
+        if (in != null)
+            return new HashSet<>(in.values).size();
+        for (final String key : keys)
+            if (isIndexed.test(key))
+                return 1;
+        return 0;
+    }
+
+    private static Object convertValue(final Value<?> value, final Map<String, Object> variables) {
+        if (value instanceof ObjectValue) {
+            final Map<String, Object> result = new LinkedHashMap<>();
+            for (final ObjectField field : ((ObjectValue) value).getObjectFields())
+                result.put(field.getName(), convertValue(field.getValue(), variables));
+            return result;
+        }
+        if (value instanceof ArrayValue) {
+            final List<Object> result = new ArrayList<>();
+            for (final Value<?> element : ((ArrayValue) value).getValues())
+                result.add(convertValue(element, variables));
+            return result;
+        }
+        if (value instanceof VariableReference)
+            return variables.get(((VariableReference) value).getName());
+        if (value instanceof StringValue)
+            return ((StringValue) value).getValue();
+        if (value instanceof BooleanValue)
+            return ((BooleanValue) value).isValue();
+        if (value instanceof IntValue)
+            return ((IntValue) value).getValue();
+        if (value instanceof FloatValue)
+            return ((FloatValue) value).getValue();
+        return null;
+    }
+
+    private static List<Comparable<?>> normalizeList(final String key, final Object value) {
+        final List<Comparable<?>> result = new ArrayList<>();
+        if (value instanceof Collection)
+            for (final Object element : (Collection<?>) value)
+                result.add(normalize(key, element));
+        else
+            result.add(normalize(key, value));
+        return result;
+    }
+
+    /**
+     * Converts literal and variable values to the types stored in the graph.
+     */
+    private static Comparable<?> normalize(final String key, final Object value) {
+        if ("__id".equals(key) || "__from_id".equals(key) || "__to_id".equals(key)) {
+            if (value instanceof Number)
+                return ((Number) value).longValue();
+            try {
+                return Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                throw new GraphQLException("Invalid ID '" + value + "' for '" + key + "'");
+            }
+        }
+        if (value instanceof BigInteger) {
+            final BigInteger integer = (BigInteger) value;
+            return integer.bitLength() < Integer.SIZE ? (Comparable<?>) integer.intValue() : integer.longValue();
+        }
+        if (value instanceof BigDecimal)
+            return ((BigDecimal) value).doubleValue();
+        return (Comparable<?>) value;
+    }
+
+    private static boolean valueEquals(final Object a, final Object b) {
+        if (a instanceof Number && b instanceof Number)
+            return compareNumbers((Number) a, (Number) b) == 0;
+        return Objects.equals(a, b);
+    }
+
+    /**
+     * Compares a property value with a bound or returns null if the property is missing or incomparable.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Integer compare(final Object property, final Comparable<?> bound) {
+        if (property instanceof Number && bound instanceof Number)
+            return compareNumbers((Number) property, (Number) bound);
+        if (property instanceof String && bound instanceof String)
+            return ((String) property).compareTo((String) bound);
+        if (property != null && bound != null && property.getClass() == bound.getClass())
+            return ((Comparable) property).compareTo(bound);
+        return null;
+    }
+
+    private static int compareNumbers(final Number a, final Number b) {
+        if (isIntegral(a) && isIntegral(b))
+            return Long.compare(a.longValue(), b.longValue());
+        return Double.compare(a.doubleValue(), b.doubleValue());
+    }
+
+    private static boolean isIntegral(final Number number) {
+        return number instanceof Integer || number instanceof Long || number instanceof Short ||
+               number instanceof Byte;
+    }
+
+    interface Lookup<T extends MVStoreModel> {
+        GraphAccessor.MeteredIterator<T> find(final Map<String, Comparable<?>> properties);
+    }
+
+    private interface Condition {
+        boolean test(MVStoreModel model);
+    }
+
+    private static final class InCondition implements Condition {
+        final String key;
+        final List<Comparable<?>> values;
+
+        InCondition(final String key, final List<Comparable<?>> values) {
+            this.key = key;
+            this.values = values;
+        }
+
+        @Override
+        public boolean test(final MVStoreModel model) {
+            final Object property = model.getProperty(key);
+            for (final Comparable<?> value : values)
+                if (valueEquals(property, value))
+                    return true;
+            return false;
+        }
+    }
+
+    /**
+     * Streams the results of all lookups one after another and skips models not matching the remaining conditions.
+     */
+    static final class FilteredIterator<T extends MVStoreModel> implements Iterator<T>, Iterable<T>, AutoCloseable {
+        private final Lookup<T> lookup;
+        private final Iterator<Map<String, Comparable<?>>> lookups;
+        private final List<Condition> conditions;
+        private GraphAccessor.MeteredIterator<T> current;
+        private T next;
+
+        private FilteredIterator(final Lookup<T> lookup, final List<Map<String, Comparable<?>>> lookups,
+                                 final List<Condition> conditions) {
+            this.lookup = lookup;
+            this.lookups = lookups.iterator();
+            this.conditions = conditions;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (current == null || !current.hasNext()) {
+                    if (!lookups.hasNext())
+                        return false;
+                    current = lookup.find(lookups.next());
+                    continue;
+                }
+                final T candidate = current.next();
+                if (matches(candidate))
+                    next = candidate;
+            }
+            return true;
+        }
+
+        private boolean matches(final T model) {
+            for (final Condition condition : conditions)
+                if (!condition.test(model))
+                    return false;
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            final T result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (current != null)
+                current.close();
+        }
+    }
+}
@@ -14,4 +14,72 @@ public class CmdArgs {
             "-p", "--port"
     }, defaultValue = "8090", paramLabel = "<port>", description = "Specifies the GraphQL server port (default 8090)")
     public Integer port;
+    @CommandLine.Option(names = {
+            "--query-cache-size"
+    }, defaultValue = "1000", paramLabel = "<size>", description = "Maximum number of parsed and validated queries kept in memory (default 1000)")
+    public Integer queryCacheSize;
+    @CommandLine.Option(names = {
+            "--full-hash"
+    }, description = "Detect workspace changes using a full MD5 hash of the graph instead of a fast fingerprint")
+    public boolean fullHash;
+    @CommandLine.Option(names = {
+            "--max-query-cost"
+    }, defaultValue = "0", paramLabel = "<cost>", description = "Maximum estimated cost of a query before it is rejected, 0 to disable (default 0)")
+    public Long maxQueryCost;
+    @CommandLine.Option(names = {
+            "--max-query-depth"
+    }, defaultValue = "15", paramLabel = "<depth>", description = "Maximum nesting depth of a query before it is rejected, 0 to disable (default 15)")
+    public Integer maxQueryDepth;
+    @CommandLine.Option(names = {
+            "--response-cache-size"
+    }, defaultValue = "0", paramLabel = "<megabytes>", description = "Memory used to cache query responses in MB, 0 to disable (default 0)")
+    public Integer responseCacheSize;
+    @CommandLine.Option(names = {
+            "--model-cache-size"
+    }, defaultValue = "64", paramLabel = "<megabytes>", description = "Memory used to cache decoded nodes and edges in MB, 0 to disable (default 64)")
+    public Integer modelCacheSize;
+    @CommandLine.Option(names = {
+            "--query-threads"
+    }, defaultValue = "0", paramLabel = "<threads>", description = "Number of query execution threads, 0 to use virtual threads if supported or twice the number of cores (default 0)")
+    public Integer queryThreads;
+    @CommandLine.Option(names = {
+            "--max-in-flight"
+    }, defaultValue = "256", paramLabel = "<queries>", description = "Maximum number of queries executed at once before further requests are rejected (default 256)")
+    public Integer maxInFlight;
+    @CommandLine.Option(names = {
+            "--query-timeout"
+    }, defaultValue = "60", paramLabel = "<seconds>", description = "Maximum execution time of a query in seconds, 0 to disable (default 60)")
+    public Integer queryTimeout;
+    @CommandLine.Option(names = {
+            "--query-parallelism"
+    }, defaultValue = "4", paramLabel = "<threads>", description = "Maximum number of threads resolving independent fields of one query in parallel, 1 to resolve fields sequentially (default 4)")
+    public Integer queryParallelism;
+    @CommandLine.Option(names = {
+            "--persisted-query-cache-size"
+    }, defaultValue = "10000", paramLabel = "<size>", description = "Maximum number of automatic persisted queries kept in memory (default 10000)")
+    public Integer persistedQueryCacheSize;
+    @CommandLine.Option(names = {
+            "--cache-max-age"
+    }, defaultValue = "60", paramLabel = "<seconds>", description = "Cache-Control max-age of GET query responses in seconds, 0 to always revalidate using the ETag (default 60)")
+    public Integer cacheMaxAge;
+    @CommandLine.Option(names = {
+            "--max-batch-size"
+    }, defaultValue = "32", paramLabel = "<operations>", description = "Maximum number of operations in a batch request (default 32)")
+    public Integer maxBatchSize;
+    @CommandLine.Option(names = {
+            "--max-batch-cost"
+    }, defaultValue = "5000000", paramLabel = "<cost>", description = "Maximum total estimated cost of all operations in a batch request, 0 to disable (default 5000000)")
+    public Long maxBatchCost;
+    @CommandLine.Option(names = {
+            "--max-exports"
+    }, defaultValue = "4", paramLabel = "<exports>", description = "Maximum number of concurrent NDJSON exports, 0 to disable the export endpoint (default 4)")
+    public Integer maxExports;
+    @CommandLine.Option(names = {
+            "--capture-file"
+    }, paramLabel = "<path>", description = "Append a sample of the executed requests to this file for later replay")
+    public String captureFile;
+    @CommandLine.Option(names = {
+            "--capture-sample-rate"
+    }, defaultValue = "0.01", paramLabel = "<rate>", description = "Fraction of requests captured between 0 and 1 (default 0.01)")
+    public Double captureSampleRate;
 }
@@ -6,4 +6,5 @@ public class RequestBody {
     public String query;
     public String operationName;
     public Map<String, Object> variables;
+    public Map<String, Object> extensions;
 }
@@ -0,0 +1,44 @@
+package de.unibi.agbi.biodwh2.graphql.schema;
+
+import de.unibi.agbi.biodwh2.core.model.graph.Graph;
+import de.unibi.agbi.biodwh2.core.model.graph.Node;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class GraphSchemaTest {
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    void edgeTypesHaveCountsAndEndpointLabels() {
+        final Graph graph = new Graph(tempDirectory.resolve("test.db"));
+        final Node gene = graph.addNode("Gene");
+        final Node protein = graph.addNode("Protein");
+        for (int i = 0; i < 100; i++) {
+            final Node drug = graph.addNode("Drug");
+            graph.addEdge(drug, i % 2 == 0 ? gene : protein, "TARGETS");
+        }
+        graph.addEdge(gene, protein, "CODES_FOR");
+        final GraphSchema schema = new GraphSchema(graph);
+        graph.close();
+        final Map<String, GraphSchema.EdgeType> edgeTypes = new HashMap<>();
+        for (final GraphSchema.EdgeType type : schema.getEdgeTypes())
+            edgeTypes.put(type.label, type);
+        assertEquals(100, edgeTypes.get("TARGETS").count);
+        assertEquals(new HashSet<>(Arrays.asList("Drug")), edgeTypes.get("TARGETS").fromLabels);
+        assertEquals(new HashSet<>(Arrays.asList("Gene", "Protein")), edgeTypes.get("TARGETS").toLabels);
+        assertEquals(1, edgeTypes.get("CODES_FOR").count);
+        assertEquals(new HashSet<>(Arrays.asList("Gene")), edgeTypes.get("CODES_FOR").fromLabels);
+        assertEquals(new HashSet<>(Arrays.asList("Protein")), edgeTypes.get("CODES_FOR").toLabels);
+        for (final GraphSchema.NodeType type : schema.getNodeTypes())
+            assertEquals("Drug".equals(type.label) ? 100 : 1, type.count);
+    }
+}
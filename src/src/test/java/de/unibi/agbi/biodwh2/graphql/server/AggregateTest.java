@@ -0,0 +1,109 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.ExecutionResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class AggregateTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+    private static final String NESTED_QUERY = "{ Drug { name TARGETS_count TARGETS_aggregate { count " +
+                                               "min { score } max { score } } } }";
+
+    @Test
+    void unfilteredCountUsesStatistics() {
+        final long findNodesCalls = workspace.getGraphCalls("findNodes");
+        assertEquals(TestWorkspace.DRUG_COUNT, getData(workspace.execute("{ Drug_count }")).get("Drug_count"));
+        assertEquals(0, workspace.getGraphCalls("findNodes") - findNodesCalls);
+    }
+
+    @Test
+    void filteredCountsAreCounted() {
+        assertEquals(100, getData(workspace.execute("{ Drug_count(kind: \"biotech\") }")).get("Drug_count"));
+        assertEquals(20, getData(workspace.execute("{ Drug_count(_where: {mass: {lt: 1100}}) }")).get(
+                "Drug_count"));
+    }
+
+    @Test
+    void aggregateHasStatisticsOfNumericProperties() {
+        final Map<String, Object> aggregate = getMap(getData(workspace.execute(
+                "{ Drug_aggregate { count min { mass } max { mass } avg { mass } } }")), "Drug_aggregate");
+        assertEquals(TestWorkspace.DRUG_COUNT, aggregate.get("count"));
+        assertEquals(100, getDouble(getMap(aggregate, "min"), "mass"), 1e-6);
+        assertEquals(15050, getDouble(getMap(aggregate, "max"), "mass"), 1e-6);
+        assertEquals(7575, getDouble(getMap(aggregate, "avg"), "mass"), 1e-6);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void groupsAreOrderedByCount() {
+        final Map<String, Object> aggregate = getMap(getData(workspace.execute(
+                "{ Drug_aggregate(groupBy: kind) { count groups { key count avg { mass } } } }")), "Drug_aggregate");
+        final List<Map<String, Object>> groups = (List<Map<String, Object>>) aggregate.get("groups");
+        assertEquals(2, groups.size());
+        assertEquals("small", groups.get(0).get("key"));
+        assertEquals(200, groups.get(0).get("count"));
+        assertEquals("biotech", groups.get(1).get("key"));
+        assertEquals(100, groups.get(1).get("count"));
+        assertEquals(7525, getDouble(getMap(groups.get(1), "avg"), "mass"), 1e-6);
+    }
+
+    @Test
+    void nestedAggregatesAreResolvedPerParent() {
+        assertNestedAggregates(workspace.execute(NESTED_QUERY));
+        assertNestedAggregates(workspace.executeWithAdjacency(NESTED_QUERY));
+    }
+
+    @Test
+    void nestedCountsUseAdjacencyIndex() {
+        final long findEdgesCalls = workspace.getGraphCalls("findEdges");
+        final long getEdgeCalls = workspace.getGraphCalls("getEdge");
+        final ExecutionResult result = workspace.executeWithAdjacency("{ Drug { TARGETS_count } }");
+        assertTrue(result.getErrors().isEmpty(), () -> result.getErrors().toString());
+        assertEquals(0, workspace.getGraphCalls("findEdges") - findEdgesCalls);
+        assertEquals(0, workspace.getGraphCalls("getEdge") - getEdgeCalls);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void nestedFiltersAreApplied() {
+        for (final ExecutionResult result : new ExecutionResult[]{
+                workspace.execute("{ Drug { name TARGETS_count(_where: {score: {gt: 2}}) } }"),
+                workspace.executeWithAdjacency("{ Drug { name TARGETS_count(_where: {score: {gt: 2}}) } }")
+        }) {
+            for (final Map<String, Object> drug : (List<Map<String, Object>>) getData(result).get("Drug")) {
+                final int index = Integer.parseInt(((String) drug.get("name")).substring(4));
+                assertEquals(index % 5 > 2 ? 1 : 0, drug.get("TARGETS_count"));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertNestedAggregates(final ExecutionResult result) {
+        for (final Map<String, Object> drug : (List<Map<String, Object>>) getData(result).get("Drug")) {
+            final int index = Integer.parseInt(((String) drug.get("name")).substring(4));
+            assertEquals(1, drug.get("TARGETS_count"));
+            final Map<String, Object> aggregate = getMap(drug, "TARGETS_aggregate");
+            assertEquals(1, aggregate.get("count"));
+            assertEquals(index % 5, getDouble(getMap(aggregate, "min"), "score"), 1e-6);
+            assertEquals(index % 5, getDouble(getMap(aggregate, "max"), "score"), 1e-6);
+        }
+    }
+
+    private static Map<String, Object> getData(final ExecutionResult result) {
+        assertTrue(result.getErrors().isEmpty(), () -> result.getErrors().toString());
+        return result.getData();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getMap(final Map<String, Object> map, final String key) {
+        return (Map<String, Object>) map.get(key);
+    }
+
+    private static double getDouble(final Map<String, Object> map, final String key) {
+        return ((Number) map.get(key)).doubleValue();
+    }
+}
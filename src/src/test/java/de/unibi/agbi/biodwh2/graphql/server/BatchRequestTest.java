@@ -0,0 +1,88 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class BatchRequestTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+
+    @Test
+    void resultsAreInRequestOrder() throws IOException {
+        final StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 8; i++)
+            body.append(i > 0 ? "," : "").append("{\"query\": \"{ Drug(name: \\\"drug").append(i).append(
+                    "\\\") { name } }\"}");
+        final List<Map<String, Object>> results = postBatch(body.append(']').toString());
+        assertEquals(8, results.size());
+        for (int i = 0; i < 8; i++)
+            assertEquals("drug" + i, getDrugs(results.get(i)).get(0).get("name"));
+    }
+
+    @Test
+    void failingOperationsOnlyFailThemselves() throws IOException {
+        final List<Map<String, Object>> results = postBatch(
+                "[{\"query\": \"{ Gene { symbol } }\"}, {\"query\": \"{ Unknown { name } }\"}, {\"query\": \"\"}, " +
+                "{\"query\": \"{ Drug_count }\"}]");
+        assertEquals(4, results.size());
+        assertNull(results.get(0).get("errors"));
+        assertNotNull(results.get(1).get("errors"));
+        assertNotNull(results.get(2).get("errors"));
+        assertEquals(TestWorkspace.DRUG_COUNT, getData(results.get(3)).get("Drug_count"));
+    }
+
+    @Test
+    void invalidElementsOnlyFailThemselves() throws IOException {
+        final List<Map<String, Object>> results = postBatch(
+                "[null, 42, {\"query\": [1]}, {\"query\": \"{ Drug_count }\"}]");
+        assertEquals(4, results.size());
+        assertTrue(results.get(0).get("errors").toString().contains("Batch operation 0 is not a JSON object"));
+        assertTrue(results.get(1).get("errors").toString().contains("Batch operation 1 is not a JSON object"));
+        assertTrue(results.get(2).get("errors").toString().contains("Batch operation 2 is not a valid request"));
+        assertEquals(TestWorkspace.DRUG_COUNT, getData(results.get(3)).get("Drug_count"));
+    }
+
+    @Test
+    void emptyBatchIsRejected() throws IOException {
+        final HttpURLConnection connection = workspace.post("/", "[]");
+        assertEquals(400, connection.getResponseCode());
+        assertTrue(TestWorkspace.readBody(connection).contains("Batch requests have to contain"));
+    }
+
+    @Test
+    void batchIsCompressedIfAccepted() throws IOException {
+        final HttpURLConnection connection = workspace.post("/", "[{\"query\": \"{ Drug { name } }\"}, " +
+                                                                 "{\"query\": \"{ Gene { symbol } }\"}]",
+                                                            "Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getContentEncoding());
+        final List<Map<String, Object>> results = readResults(connection);
+        assertEquals(TestWorkspace.DRUG_COUNT, getDrugs(results.get(0)).size());
+    }
+
+    private static List<Map<String, Object>> postBatch(final String body) throws IOException {
+        final HttpURLConnection connection = workspace.post("/", body);
+        assertEquals(200, connection.getResponseCode());
+        return readResults(connection);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> readResults(final HttpURLConnection connection) throws IOException {
+        return JsonResponseWriter.MAPPER.readValue(TestWorkspace.readBody(connection), List.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getData(final Map<String, Object> result) {
+        return (Map<String, Object>) result.get("data");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getDrugs(final Map<String, Object> result) {
+        return (List<Map<String, Object>>) getData(result).get("Drug");
+    }
+}
@@ -0,0 +1,99 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
+import graphql.ExecutionResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class ConnectionTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+
+    @Test
+    void pagesContainAllModelsInOrder() {
+        final List<String> names = new ArrayList<>();
+        String after = null;
+        boolean hasNextPage = true;
+        while (hasNextPage) {
+            final Map<String, Object> connection = getConnection(
+                    "first: 70" + (after != null ? ", after: \"" + after + "\"" : ""));
+            for (final Map<String, Object> edge : getEdges(connection))
+                names.add(getName(edge));
+            final Map<String, Object> pageInfo = getMap(connection, "pageInfo");
+            hasNextPage = (Boolean) pageInfo.get("hasNextPage");
+            after = (String) pageInfo.get("endCursor");
+        }
+        assertEquals(TestWorkspace.DRUG_COUNT, names.size());
+        for (int i = 0; i < names.size(); i++)
+            assertEquals("drug" + i, names.get(i));
+    }
+
+    @Test
+    void edgeCursorsContinueAfterTheirNode() {
+        final List<Map<String, Object>> edges = getEdges(getConnection("first: 10"));
+        final String cursor = (String) edges.get(4).get("cursor");
+        final List<Map<String, Object>> next = getEdges(getConnection("first: 2, after: \"" + cursor + "\""));
+        assertEquals(getName(edges.get(5)), getName(next.get(0)));
+        assertEquals(getName(edges.get(6)), getName(next.get(1)));
+    }
+
+    @Test
+    void missingPageSizeUsesDefault() {
+        final Map<String, Object> connection = getConnection("kind: \"small\"");
+        assertEquals(GraphQLSchemaWriter.DEFAULT_PAGE_SIZE, getEdges(connection).size());
+        assertTrue((Boolean) getMap(connection, "pageInfo").get("hasNextPage"));
+    }
+
+    @Test
+    void pagesAreFiltered() {
+        final List<Map<String, Object>> edges = getEdges(getConnection(
+                "first: 3, kind: \"biotech\", _where: {mass: {gt: 200}}"));
+        assertEquals(3, edges.size());
+        assertEquals("drug3", getName(edges.get(0)));
+        assertEquals("drug6", getName(edges.get(1)));
+        assertEquals("drug9", getName(edges.get(2)));
+    }
+
+    @Test
+    void lastPageHasNoNextPage() {
+        final Map<String, Object> connection = getConnection("first: " + TestWorkspace.DRUG_COUNT);
+        assertFalse((Boolean) getMap(connection, "pageInfo").get("hasNextPage"));
+        final Map<String, Object> empty = getConnection("first: 0");
+        assertTrue(getEdges(empty).isEmpty());
+        assertNull(getMap(empty, "pageInfo").get("endCursor"));
+    }
+
+    @Test
+    void cursorOfAnotherGraphIsRejected() {
+        final String cursor = new PageCursor(3, Long.MAX_VALUE).encode();
+        final ExecutionResult result = workspace.execute(
+                "{ DrugConnection(first: 1, after: \"" + cursor + "\") { edges { node { name } } } }");
+        assertEquals(1, result.getErrors().size());
+        assertTrue(result.getErrors().get(0).getMessage().contains("does not match the graph"));
+    }
+
+    private static Map<String, Object> getConnection(final String arguments) {
+        final ExecutionResult result = workspace.execute("{ DrugConnection(" + arguments + ") { edges { cursor " +
+                                                         "node { name } } pageInfo { hasNextPage endCursor } } }");
+        assertTrue(result.getErrors().isEmpty(), () -> result.getErrors().toString());
+        return getMap(result.getData(), "DrugConnection");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getMap(final Map<String, Object> map, final String key) {
+        return (Map<String, Object>) map.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> getEdges(final Map<String, Object> connection) {
+        return (List<Map<String, Object>>) connection.get("edges");
+    }
+
+    private static String getName(final Map<String, Object> edge) {
+        return (String) getMap(edge, "node").get("name");
+    }
+}
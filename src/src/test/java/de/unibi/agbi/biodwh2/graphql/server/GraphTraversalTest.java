@@ -0,0 +1,97 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Traverses the step graph s0 -NEXT-> s1 -NEXT-> s2 -NEXT-> s3 -NEXT-> s4 with the shortcut s0 -SKIP-> s5 -SKIP-> s4
+ * and the unconnected step s6, once by querying the graph and once using the adjacency index.
+ */
+final class GraphTraversalTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+    private static final long[] ids = workspace.stepIds;
+    private static final List<GraphAccessor> accessors = Arrays.asList(workspace.accessor,
+                                                                       workspace.adjacencyAccessor);
+
+    @Test
+    void shortestPathTakesShortcut() {
+        for (final GraphAccessor accessor : accessors) {
+            final GraphTraversal.Result path = traverse(accessor, null, GraphTraversal.Direction.OUTGOING)
+                    .getShortestPath(ids[0], ids[4], 6);
+            assertArrayEquals(new long[]{ids[0], ids[5], ids[4]}, path.nodeIds);
+            assertEquals(2, path.edgeIds.length);
+        }
+    }
+
+    @Test
+    void shortestPathFollowsEdgeLabels() {
+        for (final GraphAccessor accessor : accessors) {
+            final GraphTraversal traversal = traverse(accessor, new String[]{"NEXT"},
+                                                      GraphTraversal.Direction.OUTGOING);
+            assertArrayEquals(new long[]{ids[0], ids[1], ids[2], ids[3], ids[4]},
+                              traversal.getShortestPath(ids[0], ids[4], 6).nodeIds);
+            assertNull(traversal.getShortestPath(ids[0], ids[4], 3));
+        }
+    }
+
+    @Test
+    void shortestPathFollowsDirection() {
+        for (final GraphAccessor accessor : accessors) {
+            assertNull(traverse(accessor, null, GraphTraversal.Direction.OUTGOING).getShortestPath(ids[4], ids[0], 6));
+            assertArrayEquals(new long[]{ids[4], ids[5], ids[0]}, traverse(accessor, null,
+                                                                           GraphTraversal.Direction.INCOMING)
+                    .getShortestPath(ids[4], ids[0], 6).nodeIds);
+            assertArrayEquals(new long[]{ids[3], ids[4], ids[5]}, traverse(accessor, null,
+                                                                           GraphTraversal.Direction.BOTH)
+                    .getShortestPath(ids[3], ids[5], 6).nodeIds);
+        }
+    }
+
+    @Test
+    void shortestPathOfUnconnectedNodesIsNull() {
+        for (final GraphAccessor accessor : accessors) {
+            final GraphTraversal traversal = traverse(accessor, null, GraphTraversal.Direction.BOTH);
+            assertNull(traversal.getShortestPath(ids[0], ids[6], 6));
+            final GraphTraversal.Result path = traversal.getShortestPath(ids[6], ids[6], 6);
+            assertArrayEquals(new long[]{ids[6]}, path.nodeIds);
+            assertEquals(0, path.edgeIds.length);
+        }
+    }
+
+    @Test
+    void neighborhoodContainsNodesWithinDepth() {
+        for (final GraphAccessor accessor : accessors) {
+            final GraphTraversal traversal = traverse(accessor, null, GraphTraversal.Direction.OUTGOING);
+            final GraphTraversal.Result neighborhood = traversal.getNeighborhood(ids[0], 1);
+            assertArrayEquals(sorted(ids[0], ids[1], ids[5]), sorted(neighborhood.nodeIds));
+            assertEquals(2, neighborhood.edgeIds.length);
+            final GraphTraversal.Result twoHops = traversal.getNeighborhood(ids[0], 2);
+            assertArrayEquals(sorted(ids[0], ids[1], ids[2], ids[4], ids[5]), sorted(twoHops.nodeIds));
+            assertEquals(4, twoHops.edgeIds.length);
+            assertArrayEquals(new long[]{ids[0]}, traversal.getNeighborhood(ids[0], 0).nodeIds);
+        }
+    }
+
+    @Test
+    void neighborhoodContainsEachEdgeOnce() {
+        final GraphTraversal.Result neighborhood = traverse(workspace.accessor, null, GraphTraversal.Direction.BOTH)
+                .getNeighborhood(ids[4], 10);
+        assertEquals(6, neighborhood.nodeIds.length);
+        assertEquals(6, neighborhood.edgeIds.length);
+    }
+
+    private static GraphTraversal traverse(final GraphAccessor accessor, final String[] edgeLabels,
+                                           final GraphTraversal.Direction direction) {
+        return new GraphTraversal(accessor, edgeLabels, direction, QueryDeadline.NONE);
+    }
+
+    private static long[] sorted(final long... ids) {
+        final long[] result = ids.clone();
+        Arrays.sort(result);
+        return result;
+    }
+}
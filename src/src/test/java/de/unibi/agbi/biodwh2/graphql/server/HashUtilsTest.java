@@ -0,0 +1,59 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class HashUtilsTest {
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    void fingerprintIsStable() throws IOException {
+        final Path file = writeFile(3 * 1024 * 1024 + 123);
+        assertEquals(HashUtils.getFingerprintFromFile(file.toString()),
+                     HashUtils.getFingerprintFromFile(file.toString()));
+    }
+
+    @Test
+    void fingerprintDetectsChangedFooter() throws IOException {
+        for (final int size : new int[]{100, 5000, 9000, 3 * 1024 * 1024 + 123}) {
+            final Path file = writeFile(size);
+            final String fingerprint = HashUtils.getFingerprintFromFile(file.toString());
+            changeByte(file, size - 1);
+            assertNotEquals(fingerprint, HashUtils.getFingerprintFromFile(file.toString()), "size " + size);
+        }
+    }
+
+    @Test
+    void fingerprintDetectsChangedHeader() throws IOException {
+        final Path file = writeFile(3 * 1024 * 1024 + 123);
+        final String fingerprint = HashUtils.getFingerprintFromFile(file.toString());
+        changeByte(file, 4100);
+        assertNotEquals(fingerprint, HashUtils.getFingerprintFromFile(file.toString()));
+    }
+
+    private Path writeFile(final int size) throws IOException {
+        final byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return Files.write(tempDirectory.resolve(size + ".db"), content);
+    }
+
+    /**
+     * Changes a single byte while keeping the size and modification time, so only the sampled content differs.
+     */
+    private static void changeByte(final Path file, final int position) throws IOException {
+        final FileTime lastModified = Files.getLastModifiedTime(file);
+        final byte[] content = Files.readAllBytes(file);
+        content[position]++;
+        Files.write(file, content);
+        Files.setLastModifiedTime(file, lastModified);
+    }
+}
@@ -0,0 +1,99 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class HttpCachingTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+    private static final String ETAG = "\"0123456789abcdef0123456789abcdef\"";
+
+    @Test
+    void matchesListedEntityTags() {
+        assertTrue(HttpCaching.matches(ETAG, ETAG));
+        assertTrue(HttpCaching.matches("\"other\", " + ETAG, ETAG));
+        assertTrue(HttpCaching.matches("W/" + ETAG, ETAG));
+        assertTrue(HttpCaching.matches("*", ETAG));
+    }
+
+    @Test
+    void doesNotMatchOtherEntityTags() {
+        assertFalse(HttpCaching.matches(null, ETAG));
+        assertFalse(HttpCaching.matches("\"other\"", ETAG));
+        assertFalse(HttpCaching.matches(ETAG.replace("\"", ""), ETAG));
+    }
+
+    @Test
+    void entityTagIgnoresVariableOrder() {
+        final HttpCaching caching = new HttpCaching("hash", 60);
+        final Map<String, Object> variables = new HashMap<>();
+        variables.put("a", 1);
+        variables.put("b", 2);
+        final Map<String, Object> reversed = new HashMap<>();
+        reversed.put("b", 2);
+        reversed.put("a", 1);
+        final String eTag = caching.createETag("{ Drug { _id } }", null, variables);
+        assertEquals(eTag, caching.createETag("{ Drug { _id } }", null, reversed));
+        assertTrue(eTag.startsWith("\"") && eTag.endsWith("\""));
+    }
+
+    @Test
+    void entityTagDependsOnRequestAndWorkspace() {
+        final HttpCaching caching = new HttpCaching("hash", 60);
+        final String eTag = caching.createETag("{ Drug { _id } }", null, null);
+        assertNotEquals(eTag, caching.createETag("{ Drug { name } }", null, null));
+        assertNotEquals(eTag, caching.createETag("{ Drug { _id } }", "Drugs", null));
+        assertNotEquals(eTag, caching.createETag("{ Drug { _id } }", null, Collections.singletonMap("a", 1)));
+        assertNotEquals(eTag, new HttpCaching("other", 60).createETag("{ Drug { _id } }", null, null));
+    }
+
+    @Test
+    void getResponseIsRevalidated() throws IOException {
+        final String path = "/?query=" + encode("{ Drug(name: \"drug1\") { name } }");
+        final HttpURLConnection connection = workspace.openConnection(path);
+        assertEquals(200, connection.getResponseCode());
+        final String eTag = connection.getHeaderField("ETag");
+        assertNotNull(eTag);
+        assertNotNull(connection.getHeaderField("Cache-Control"));
+        assertTrue(TestWorkspace.readBody(connection).contains("drug1"));
+        final HttpURLConnection revalidation = workspace.openConnection(path);
+        revalidation.setRequestProperty("If-None-Match", eTag);
+        assertEquals(304, revalidation.getResponseCode());
+        assertEquals(eTag, revalidation.getHeaderField("ETag"));
+    }
+
+    @Test
+    void persistedQueryIsRegisteredOnce() throws IOException {
+        final String query = "{ Drug(name: \"drug3\") { mass } }";
+        final String extensions = "{\"persistedQuery\": {\"version\": 1, \"sha256Hash\": \"" +
+                                  DigestUtils.sha256Hex(query) + "\"}}";
+        final String path = "/?extensions=" + encode(extensions);
+        assertTrue(TestWorkspace.readBody(workspace.openConnection(path)).contains(
+                PersistedQueryStore.NOT_FOUND_MESSAGE));
+        final String registration = "{\"query\": \"" + query.replace("\"", "\\\"") + "\", \"extensions\": " +
+                                    extensions + "}";
+        assertTrue(TestWorkspace.readBody(workspace.post("/", registration)).contains("250"));
+        assertTrue(TestWorkspace.readBody(workspace.openConnection(path)).contains("250"));
+    }
+
+    @Test
+    void persistedQueryWithWrongHashIsRejected() throws IOException {
+        final String body = "{\"query\": \"{ Drug { name } }\", \"extensions\": {\"persistedQuery\": " +
+                            "{\"version\": 1, \"sha256Hash\": \"" + DigestUtils.sha256Hex("other") + "\"}}}";
+        final HttpURLConnection connection = workspace.post("/", body);
+        assertTrue(TestWorkspace.readBody(connection).contains("does not match the query"));
+    }
+
+    private static String encode(final String value) throws IOException {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,104 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class IncrementalDeliveryTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+
+    @Test
+    void queryWithoutDirectivesIsNotSplit() {
+        assertNull(IncrementalDelivery.create("{ Drug { name } }", null, null));
+        assertNull(IncrementalDelivery.create("{ Drug { name ... @defer { mass } } }", null, null));
+        assertNull(IncrementalDelivery.create("{ ... @defer(if: $defer) { Drug_count } }", null,
+                                              Collections.singletonMap("defer", false)));
+    }
+
+    @Test
+    void deferredFragmentIsDeliveredAfterInitialPayload() throws IOException {
+        final List<Map<String, Object>> payloads = postIncremental(
+                "{ Gene { symbol } ... @defer(label: \"count\") { Drug_count } }");
+        assertEquals(2, payloads.size());
+        assertEquals(TestWorkspace.GENE_COUNT, ((List<?>) getData(payloads.get(0)).get("Gene")).size());
+        assertEquals(true, payloads.get(0).get("hasNext"));
+        final Map<String, Object> incremental = getIncremental(payloads.get(1));
+        assertEquals("count", incremental.get("label"));
+        assertEquals(TestWorkspace.DRUG_COUNT, getData(incremental).get("Drug_count"));
+        assertEquals(false, payloads.get(1).get("hasNext"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamedFieldIsDeliveredInChunks() throws IOException {
+        final List<Map<String, Object>> payloads = postIncremental("{ Drug @stream(initialCount: 10) { name } }");
+        final List<Map<String, Object>> initialItems = (List<Map<String, Object>>) getData(payloads.get(0)).get(
+                "Drug");
+        assertEquals(10, initialItems.size());
+        final Set<Object> names = new HashSet<>();
+        for (final Map<String, Object> item : initialItems)
+            names.add(item.get("name"));
+        for (final Map<String, Object> payload : payloads.subList(1, payloads.size())) {
+            final List<Map<String, Object>> items = (List<Map<String, Object>>) getIncremental(payload).get("items");
+            assertTrue(items.size() <= IncrementalDelivery.STREAM_CHUNK_SIZE);
+            for (final Map<String, Object> item : items)
+                names.add(item.get("name"));
+        }
+        assertEquals(TestWorkspace.DRUG_COUNT, names.size());
+        assertEquals(false, payloads.get(payloads.size() - 1).get("hasNext"));
+    }
+
+    @Test
+    void deliveryIsCompressedIfAccepted() throws IOException {
+        final HttpURLConnection connection = post("{ Drug @stream { name } }", "Accept-Encoding", "gzip");
+        assertEquals("gzip", connection.getContentEncoding());
+        assertFalse(parsePayloads(TestWorkspace.readBody(connection)).isEmpty());
+    }
+
+    private static HttpURLConnection post(final String query, final String... headers) throws IOException {
+        final String[] allHeaders = Arrays.copyOf(headers, headers.length + 2);
+        allHeaders[headers.length] = "Accept";
+        allHeaders[headers.length + 1] = "multipart/mixed";
+        final HttpURLConnection connection = workspace.post("/", "{\"query\": \"" + query.replace("\"", "\\\"") +
+                                                                 "\"}", allHeaders);
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("multipart/mixed"));
+        return connection;
+    }
+
+    private static List<Map<String, Object>> postIncremental(final String query) throws IOException {
+        return parsePayloads(TestWorkspace.readBody(post(query)));
+    }
+
+    /**
+     * Splits the multipart body at its boundaries and parses the JSON payload of each part.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> parsePayloads(final String body) throws IOException {
+        assertTrue(body.endsWith("\r\n-----\r\n"));
+        final List<Map<String, Object>> payloads = new ArrayList<>();
+        for (final String part : body.substring(0, body.length() - 9).split("\r\n---\r\n")) {
+            final int contentStart = part.indexOf("\r\n\r\n");
+            if (contentStart >= 0)
+                payloads.add(JsonResponseWriter.MAPPER.readValue(part.substring(contentStart + 4), Map.class));
+        }
+        return payloads;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getIncremental(final Map<String, Object> payload) {
+        final List<Map<String, Object>> incremental = (List<Map<String, Object>>) payload.get("incremental");
+        assertEquals(1, incremental.size());
+        assertNull(incremental.get(0).get("errors"));
+        return incremental.get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getData(final Map<String, Object> payload) {
+        return (Map<String, Object>) payload.get("data");
+    }
+}
@@ -0,0 +1,34 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class LongIdSetTest {
+    @Test
+    void addAssignsIndicesInInsertionOrder() {
+        final LongIdSet set = new LongIdSet();
+        assertEquals(0, set.add(42));
+        assertEquals(1, set.add(-7));
+        assertEquals(2, set.add(0));
+        assertEquals(-1, set.add(42));
+        assertEquals(3, set.size());
+        assertEquals(1, set.indexOf(-7));
+        assertEquals(-1, set.indexOf(43));
+        assertArrayEquals(new long[]{42, -7, 0}, set.toArray());
+    }
+
+    @Test
+    void keepsAllIdsWhileGrowing() {
+        final LongIdSet set = new LongIdSet();
+        final int count = 100000;
+        for (int i = 0; i < count; i++)
+            assertEquals(i, set.add(i * 31L));
+        assertEquals(count, set.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, set.indexOf(i * 31L));
+            assertEquals(i * 31L, set.get(i));
+            assertEquals(-1, set.indexOf(i * 31L + 1));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class NdjsonExporterTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+
+    @Test
+    void allNodesOfLabelAreExported() throws IOException {
+        final List<Map<String, Object>> lines = export("/export/Drug?properties=name,mass");
+        assertEquals(TestWorkspace.DRUG_COUNT, lines.size());
+        for (final Map<String, Object> line : lines) {
+            assertEquals(2, line.size());
+            final int index = Integer.parseInt(((String) line.get("name")).substring(4));
+            assertEquals(100 + index * 50, line.get("mass"));
+        }
+    }
+
+    @Test
+    void edgesAreExportedByGraphLabel() throws IOException {
+        final List<Map<String, Object>> lines = export("/export/TARGETS?properties=score");
+        assertEquals(TestWorkspace.DRUG_COUNT, lines.size());
+        assertTrue(lines.get(0).containsKey("score"));
+    }
+
+    @Test
+    void filtersAreApplied() throws IOException {
+        assertEquals(100, export("/export/Drug?kind=biotech").size());
+        assertEquals(1, export("/export/Drug?name=drug7").size());
+    }
+
+    @Test
+    void invalidRequestsAreRejected() throws IOException {
+        assertEquals(404, workspace.openConnection("/export/Unknown").getResponseCode());
+        assertEquals(400, workspace.openConnection("/export/Drug?properties=unknown").getResponseCode());
+        assertEquals(400, workspace.openConnection("/export/Drug?unknown=1").getResponseCode());
+    }
+
+    @Test
+    void exportIsCompressedIfAccepted() throws IOException {
+        final HttpURLConnection connection = workspace.openConnection("/export/Drug?properties=name");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getContentEncoding());
+        assertEquals(TestWorkspace.DRUG_COUNT, parseLines(TestWorkspace.readBody(connection)).size());
+    }
+
+    private static List<Map<String, Object>> export(final String path) throws IOException {
+        final HttpURLConnection connection = workspace.openConnection(path);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(NdjsonExporter.CONTENT_TYPE, connection.getContentType());
+        return parseLines(TestWorkspace.readBody(connection));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> parseLines(final String body) throws IOException {
+        assertTrue(body.isEmpty() || body.endsWith("\n"));
+        final List<Map<String, Object>> lines = new ArrayList<>();
+        for (final String line : body.split("\n"))
+            if (!line.isEmpty())
+                lines.add(JsonResponseWriter.MAPPER.readValue(line, Map.class));
+        return lines;
+    }
+}
@@ -0,0 +1,40 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.GraphQLException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class PageCursorTest {
+    @Test
+    void decodeReturnsEncodedCursor() {
+        final PageCursor cursor = PageCursor.decode(new PageCursor(1234567890123L, 42).encode());
+        assertEquals(1234567890123L, cursor.offset);
+        assertEquals(42, cursor.id);
+    }
+
+    @Test
+    void encodedCursorIsUrlSafe() {
+        assertTrue(new PageCursor(Long.MAX_VALUE, Long.MAX_VALUE).encode().matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    void decodeReturnsNullWithoutCursor() {
+        assertNull(PageCursor.decode(null));
+    }
+
+    @Test
+    void decodeRejectsInvalidCursors() {
+        assertThrows(GraphQLException.class, () -> PageCursor.decode("not a cursor!"));
+        assertThrows(GraphQLException.class, () -> PageCursor.decode(encode("offset:1:2")));
+        assertThrows(GraphQLException.class, () -> PageCursor.decode(encode("cursor:1")));
+        assertThrows(GraphQLException.class, () -> PageCursor.decode(encode("cursor:a:b")));
+    }
+
+    private static String encode(final String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,125 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.GraphQLError;
+import graphql.language.Document;
+import graphql.language.FragmentDefinition;
+import graphql.language.OperationDefinition;
+import graphql.parser.Parser;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class QueryCostAnalyzerTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+    private static final int DRUG_COUNT = TestWorkspace.DRUG_COUNT;
+    /**
+     * Pretends an index on the names of drugs in addition to the always indexed IDs.
+     */
+    private static final QueryCostAnalyzer.IndexLookup INDEX_LOOKUP = (isNode, label, property) ->
+            "__id".equals(property) || (isNode && "Drug".equals(label) && "name".equals(property));
+    private static final QueryCostAnalyzer analyzer = new QueryCostAnalyzer(workspace.schema, INDEX_LOOKUP);
+
+    @Test
+    void labelScanCostsAtLeastItsRows() {
+        assertTrue(estimate("{ Drug { name } }").cost >= DRUG_COUNT);
+        assertTrue(estimate("{ Drug(_id: 1) { name } }").cost < DRUG_COUNT);
+    }
+
+    @Test
+    void nestedSelectionsMultiplyCost() {
+        final QueryCostAnalyzer.QueryCost flat = estimate("{ Drug { name } }");
+        final QueryCostAnalyzer.QueryCost nested = estimate("{ Drug { name TARGETS { _to { _id } } } }");
+        assertTrue(nested.cost > flat.cost);
+        assertTrue(nested.depth > flat.depth);
+    }
+
+    @Test
+    void fragmentsAreEstimated() {
+        assertEquals(estimate("{ Drug { name TARGETS { _to { _id } } } }").cost,
+                     estimate("{ Drug { ...F } } fragment F on Drug { name TARGETS { _to { _id } } }").cost, 1e-6);
+    }
+
+    @Test
+    void connectionUsesDefaultPageSize() {
+        assertEquals(estimate("{ DrugConnection(first: " + GraphQLSchemaWriter.DEFAULT_PAGE_SIZE +
+                              ") { edges { node { name } } } }").cost,
+                     estimate("{ DrugConnection { edges { node { name } } } }").cost, 1e-6);
+        assertTrue(estimate("{ DrugConnection(first: 10) { edges { node { name } } } }").cost <
+                   estimate("{ DrugConnection { edges { node { name } } } }").cost);
+    }
+
+    @Test
+    void connectionChargesRowsBeforeCursor() {
+        final String after = new PageCursor(200, 1).encode();
+        final double firstPage = estimate("{ DrugConnection(first: 10) { edges { node { name } } } }").cost;
+        final double deepPage = estimate(
+                "{ DrugConnection(first: 10, after: \"" + after + "\") { edges { node { name } } } }").cost;
+        assertEquals(firstPage + 200, deepPage, 1e-6);
+        assertEquals(firstPage, estimate(
+                "{ DrugConnection(first: 10, after: \"invalid\") { edges { node { name } } } }").cost, 1e-6);
+    }
+
+    @Test
+    void indexedFiltersCostLessThanUnindexedFilters() {
+        final double unindexed = estimate("{ Drug(kind: \"small\") { name } }").cost;
+        assertTrue(unindexed >= DRUG_COUNT);
+        assertTrue(estimate("{ Drug(name: \"drug1\") { name } }").cost < unindexed);
+        assertTrue(estimate("{ Drug(_where: {name: {eq: \"drug1\"}}) { name } }").cost < unindexed);
+        assertTrue(estimate("{ Drug(kind: \"small\", _where: {name: {eq: \"drug1\"}}) { name } }").cost <
+                   unindexed);
+        assertEquals(unindexed, estimate("{ Drug(_where: {kind: {eq: \"small\"}}) { name } }").cost, 1e-6);
+    }
+
+    @Test
+    void indexedInFiltersCostOneLookupPerValue() {
+        final double one = estimate("{ Drug(_where: {name: {in: [\"drug1\"]}}) { name } }").cost;
+        final double two = estimate("{ Drug(_where: {name: {in: [\"drug1\", \"drug2\", \"drug1\"]}}) { name } }")
+                .cost;
+        assertEquals(2 * one, two, 1e-6);
+        assertTrue(two < estimate("{ Drug(_where: {kind: {in: [\"small\"]}}) { name } }").cost);
+    }
+
+    @Test
+    void instrumentationRejectsExpensiveQueries() {
+        final ExecutionResult result = execute(new QueryCostInstrumentation(DRUG_COUNT / 2, 0, INDEX_LOOKUP),
+                                               "{ Drug { name } }");
+        assertEquals(1, result.getErrors().size());
+        final GraphQLError error = result.getErrors().get(0);
+        assertEquals("QUERY_TOO_EXPENSIVE", error.getExtensions().get("code"));
+        assertNull(result.getData());
+    }
+
+    @Test
+    void instrumentationRejectsDeepQueries() {
+        final ExecutionResult result = execute(new QueryCostInstrumentation(0, 2, INDEX_LOOKUP),
+                                               "{ Drug { TARGETS { _to { _id } } } }");
+        assertEquals(1, result.getErrors().size());
+        assertEquals("QUERY_TOO_DEEP", result.getErrors().get(0).getExtensions().get("code"));
+    }
+
+    @Test
+    void disabledLimitsAcceptQueries() {
+        final ExecutionResult result = execute(new QueryCostInstrumentation(0, 0, INDEX_LOOKUP), "{ Drug { name } }");
+        assertTrue(result.getErrors().isEmpty());
+    }
+
+    private static QueryCostAnalyzer.QueryCost estimate(final String query) {
+        final Document document = Parser.parse(query);
+        final Map<String, FragmentDefinition> fragments = new HashMap<>();
+        for (final FragmentDefinition fragment : document.getDefinitionsOfType(FragmentDefinition.class))
+            fragments.put(fragment.getName(), fragment);
+        return analyzer.estimate(document.getDefinitionsOfType(OperationDefinition.class).get(0), fragments,
+                                 Collections.emptyMap());
+    }
+
+    private static ExecutionResult execute(final QueryCostInstrumentation instrumentation, final String query) {
+        return GraphQL.newGraphQL(workspace.schema).instrumentation(instrumentation).build().execute(query);
+    }
+}
@@ -0,0 +1,48 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.ExecutionResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class RelationBatchingTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+    private static final String QUERY = "{ Drug { name TARGETS { score _to { _id ... on Gene { symbol } } } } }";
+
+    @Test
+    void nestedRelationsAreResolvedForEveryParent() {
+        assertTargets(workspace.execute(QUERY));
+        assertTargets(workspace.executeWithAdjacency(QUERY));
+    }
+
+    @Test
+    void sharedTargetsAreLoadedOnce() {
+        long getNodeCalls = workspace.getGraphCalls("getNode");
+        assertTrue(workspace.execute(QUERY).getErrors().isEmpty());
+        assertEquals(TestWorkspace.GENE_COUNT, workspace.getGraphCalls("getNode") - getNodeCalls);
+        getNodeCalls = workspace.getGraphCalls("getNode");
+        final long findEdgesCalls = workspace.getGraphCalls("findEdges");
+        assertTrue(workspace.executeWithAdjacency(QUERY).getErrors().isEmpty());
+        assertEquals(TestWorkspace.GENE_COUNT, workspace.getGraphCalls("getNode") - getNodeCalls);
+        assertEquals(0, workspace.getGraphCalls("findEdges") - findEdgesCalls);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertTargets(final ExecutionResult result) {
+        assertTrue(result.getErrors().isEmpty(), () -> result.getErrors().toString());
+        final List<Map<String, Object>> drugs = (List<Map<String, Object>>) result.<Map<String, Object>>getData()
+                .get("Drug");
+        assertEquals(TestWorkspace.DRUG_COUNT, drugs.size());
+        for (final Map<String, Object> drug : drugs) {
+            final int index = Integer.parseInt(((String) drug.get("name")).substring(4));
+            final List<Map<String, Object>> targets = (List<Map<String, Object>>) drug.get("TARGETS");
+            assertEquals(1, targets.size());
+            assertEquals(index % 5, targets.get(0).get("score"));
+            final Map<String, Object> gene = (Map<String, Object>) targets.get(0).get("_to");
+            assertEquals("G" + index % TestWorkspace.GENE_COUNT, gene.get("symbol"));
+        }
+    }
+}
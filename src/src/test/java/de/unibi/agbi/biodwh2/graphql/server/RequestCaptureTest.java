@@ -0,0 +1,45 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.graphql.server.model.RequestBody;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class RequestCaptureTest {
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void capturedRequestsAreWrittenOnClose() throws IOException {
+        final Path filePath = tempDirectory.resolve("capture.ndjson");
+        final RequestCapture capture = RequestCapture.open(filePath, 1);
+        assertNotNull(capture);
+        for (int i = 0; i < 100; i++) {
+            final RequestBody body = new RequestBody();
+            body.query = "{ Drug(name: \"drug" + i + "\") { mass } }";
+            body.variables = Collections.singletonMap("index", i);
+            capture.capture(body);
+        }
+        capture.close();
+        final List<String> lines = Files.readAllLines(filePath, StandardCharsets.UTF_8);
+        assertEquals(100 - capture.getDroppedCount(), lines.size());
+        final Map<String, Object> entry = JsonResponseWriter.MAPPER.readValue(lines.get(0), Map.class);
+        assertTrue(((String) entry.get("query")).startsWith("{ Drug(name: "));
+        assertNotNull(entry.get("timestamp"));
+    }
+
+    @Test
+    void nothingIsCapturedWithoutSampleRate() {
+        assertNull(RequestCapture.open(tempDirectory.resolve("capture.ndjson"), 0));
+    }
+}
@@ -0,0 +1,54 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class ResponseCompressionTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+
+    @Test
+    void responseIsCompressedIfAccepted() throws IOException {
+        final HttpURLConnection connection = workspace.post("/", "{\"query\": \"{ Drug { name mass } }\"}",
+                                                            "Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getContentEncoding());
+        assertEquals(TestWorkspace.DRUG_COUNT, getDrugs(TestWorkspace.readBody(connection)).size());
+    }
+
+    @Test
+    void responseIsUncompressedOtherwise() throws IOException {
+        final HttpURLConnection connection = workspace.post("/", "{\"query\": \"{ Drug { name kind } }\"}");
+        assertEquals(200, connection.getResponseCode());
+        assertNull(connection.getContentEncoding());
+        assertEquals(TestWorkspace.DRUG_COUNT, getDrugs(TestWorkspace.readBody(connection)).size());
+    }
+
+    @Test
+    void cachedResponseIsUncompressed() throws IOException {
+        final String body = "{\"query\": \"{ Drug { name mass kind } }\"}";
+        final String compressed = TestWorkspace.readBody(workspace.post("/", body, "Accept-Encoding", "gzip"));
+        final HttpURLConnection connection = workspace.post("/", body);
+        assertNull(connection.getContentEncoding());
+        assertEquals(compressed, TestWorkspace.readBody(connection));
+    }
+
+    @Test
+    void errorIsCompressedIfAccepted() throws IOException {
+        final HttpURLConnection connection = workspace.post("/", "[]", "Accept-Encoding", "gzip");
+        assertEquals(400, connection.getResponseCode());
+        assertEquals("gzip", connection.getContentEncoding());
+        assertTrue(TestWorkspace.readBody(connection).contains("Batch requests have to contain"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> getDrugs(final String body) throws IOException {
+        final Map<String, Object> response = JsonResponseWriter.MAPPER.readValue(body, Map.class);
+        return (List<Object>) ((Map<String, Object>) response.get("data")).get("Drug");
+    }
+}
@@ -0,0 +1,78 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class ResultRowTest {
+    private static final TestWorkspace workspace = TestWorkspace.get();
+    private static final ResultRow.Layout LAYOUT = new ResultRow.Layout(Arrays.asList("__typename", "name", "mass"));
+
+    @Test
+    void rowBehavesLikeMap() {
+        final ResultRow row = createRow("drug1", 150);
+        assertEquals(3, row.size());
+        assertEquals("drug1", row.get("name"));
+        assertEquals(150, row.get("mass"));
+        assertTrue(row.containsKey("mass"));
+        assertFalse(row.containsKey("kind"));
+        assertNull(row.get("kind"));
+        final Map<String, Object> expected = new HashMap<>();
+        expected.put("__typename", "Drug");
+        expected.put("name", "drug1");
+        expected.put("mass", 150);
+        assertEquals(expected, row);
+        assertEquals(expected.hashCode(), row.hashCode());
+    }
+
+    @Test
+    void entriesAreInSlotOrder() {
+        final Iterator<Map.Entry<String, Object>> iterator = createRow("drug1", null).entrySet().iterator();
+        assertEquals("__typename", iterator.next().getKey());
+        assertEquals("name", iterator.next().getKey());
+        final Map.Entry<String, Object> mass = iterator.next();
+        assertEquals("mass", mass.getKey());
+        assertNull(mass.getValue());
+        assertFalse(iterator.hasNext());
+        assertThrows(NoSuchElementException.class, iterator::next);
+    }
+
+    @Test
+    void rowIsWrittenAsJsonObject() throws IOException {
+        final Map<String, Object> data = Collections.singletonMap("Drug", Collections.singletonList(createRow(
+                "drug1", 150)));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonResponseWriter.write(outputStream, ExecutionResultImpl.newExecutionResult().data(data).build());
+        assertEquals("{\"data\":{\"Drug\":[{\"__typename\":\"Drug\",\"name\":\"drug1\",\"mass\":150}]}}",
+                     new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void aliasedFieldsAreResolved() {
+        final ExecutionResult result = workspace.execute(
+                "{ Drug(name: \"drug2\") { label: __typename drugName: name name weight: mass } }");
+        assertTrue(result.getErrors().isEmpty(), () -> result.getErrors().toString());
+        final Map<String, Object> drug = ((List<Map<String, Object>>) result.<Map<String, Object>>getData().get(
+                "Drug")).get(0);
+        assertEquals("Drug", drug.get("label"));
+        assertEquals("drug2", drug.get("drugName"));
+        assertEquals("drug2", drug.get("name"));
+        assertEquals(200, drug.get("weight"));
+    }
+
+    private static ResultRow createRow(final String name, final Integer mass) {
+        final ResultRow row = new ResultRow(LAYOUT);
+        row.set(0, "Drug");
+        row.set(1, name);
+        row.set(2, mass);
+        return row;
+    }
+}
@@ -0,0 +1,194 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.model.graph.Graph;
+import de.unibi.agbi.biodwh2.core.model.graph.Node;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphQLSchemaWriter;
+import de.unibi.agbi.biodwh2.graphql.schema.GraphSchema;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Workspace shared by all tests. It is created once per test run in a temporary directory and removed on shutdown.
+ * <p>
+ * The graph holds {@value #DRUG_COUNT} Drug nodes with a name "drug&lt;i&gt;", a mass of 100 + i * 50 and the kind
+ * "biotech" for every third drug and "small" otherwise. Drug i TARGETS the Gene node "G&lt;i mod 10&gt;" with a score
+ * of i mod 5. The Step nodes s0 to s6 form the chain s0 -NEXT-&gt; s1 -NEXT-&gt; s2 -NEXT-&gt; s3 -NEXT-&gt; s4 with
+ * the shortcut s0 -SKIP-&gt; s5 -SKIP-&gt; s4, s6 is not connected.
+ */
+final class TestWorkspace {
+    static final int DRUG_COUNT = 300;
+    static final int GENE_COUNT = 10;
+    static final int STEP_COUNT = 7;
+
+    private static TestWorkspace instance;
+
+    final Path path;
+    final Graph graph;
+    final ServerMetrics metrics = new ServerMetrics();
+    final long[] stepIds = new long[STEP_COUNT];
+    /**
+     * Accessor resolving relations by graph lookups.
+     */
+    final GraphAccessor accessor;
+    /**
+     * Accessor resolving relations using the adjacency index.
+     */
+    final GraphAccessor adjacencyAccessor;
+    final GraphQLSchema schema;
+    final GraphQLSchema adjacencySchema;
+    private GraphQLServer server;
+
+    private TestWorkspace(final Path path) throws IOException {
+        this.path = path;
+        final Path databaseFilePath = path.resolve("sources").resolve("mapped." + Graph.EXTENSION);
+        Files.createDirectories(databaseFilePath.getParent());
+        final Graph writableGraph = new Graph(databaseFilePath);
+        populate(writableGraph);
+        writableGraph.close();
+        graph = new Graph(databaseFilePath, true, true);
+        accessor = new GraphAccessor(graph, metrics, null, null);
+        adjacencyAccessor = new GraphAccessor(graph, metrics, null, AdjacencyIndex.load(
+                path.resolve(AdjacencyIndex.FILE_NAME), graph, "test"));
+        final Path schemaFilePath = path.resolve("test." + GraphQLSchemaWriter.EXTENSION);
+        new GraphQLSchemaWriter(new GraphSchema(graph)).save(schemaFilePath.toString());
+        final TypeDefinitionRegistry typeRegistry = new SchemaParser().parse(schemaFilePath.toFile());
+        schema = createSchema(typeRegistry, accessor);
+        adjacencySchema = createSchema(typeRegistry, adjacencyAccessor);
+    }
+
+    private void populate(final Graph writableGraph) {
+        final Node[] genes = new Node[GENE_COUNT];
+        for (int i = 0; i < genes.length; i++)
+            genes[i] = writableGraph.addNode("Gene", "symbol", "G" + i);
+        for (int i = 0; i < DRUG_COUNT; i++) {
+            final Node drug = writableGraph.addNode("Drug", "name", "drug" + i, "mass", 100 + i * 50, "kind",
+                                                    i % 3 == 0 ? "biotech" : "small");
+            writableGraph.addEdge(drug, genes[i % genes.length], "TARGETS", "score", i % 5);
+        }
+        final Node[] steps = new Node[STEP_COUNT];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = writableGraph.addNode("Step", "name", "s" + i);
+            stepIds[i] = steps[i].getId();
+        }
+        for (int i = 0; i < 4; i++)
+            writableGraph.addEdge(steps[i], steps[i + 1], "NEXT");
+        writableGraph.addEdge(steps[0], steps[5], "SKIP");
+        writableGraph.addEdge(steps[5], steps[4], "SKIP");
+    }
+
+    private GraphQLSchema createSchema(final TypeDefinitionRegistry typeRegistry, final GraphAccessor accessor) {
+        final RuntimeWiring wiring = RuntimeWiring.newRuntimeWiring().wiringFactory(
+                new GraphWiringFactory(accessor, metrics)).build();
+        return new SchemaGenerator().makeExecutableSchema(typeRegistry, wiring);
+    }
+
+    static synchronized TestWorkspace get() {
+        if (instance == null) {
+            try {
+                instance = new TestWorkspace(Files.createTempDirectory("biodwh2-graphql-test"));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(instance::close));
+        }
+        return instance;
+    }
+
+    ExecutionResult execute(final String query) {
+        return GraphQL.newGraphQL(schema).build().execute(query);
+    }
+
+    ExecutionResult executeWithAdjacency(final String query) {
+        return GraphQL.newGraphQL(adjacencySchema).build().execute(query);
+    }
+
+    /**
+     * Opens a connection to the embedded server of this workspace, which is started on first use.
+     */
+    synchronized HttpURLConnection openConnection(final String path) throws IOException {
+        if (server == null)
+            server = GraphQLServer.startEmbedded("--start", this.path.toString(), "--port", "0",
+                                                 "--response-cache-size", "1");
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    /**
+     * Posts a JSON body to the embedded server. The headers are given as pairs of name and value.
+     */
+    HttpURLConnection post(final String path, final String body, final String... headers) throws IOException {
+        final HttpURLConnection connection = openConnection(path);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        for (int i = 0; i < headers.length; i += 2)
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        connection.setDoOutput(true);
+        try (final OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return connection;
+    }
+
+    /**
+     * Reads the response body of a connection, decompressing it if it is gzip encoded.
+     */
+    static String readBody(final HttpURLConnection connection) throws IOException {
+        InputStream inputStream = connection.getResponseCode() < 400 ? connection.getInputStream() :
+                                  connection.getErrorStream();
+        if ("gzip".equals(connection.getContentEncoding()))
+            inputStream = new GZIPInputStream(inputStream);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        try (final InputStream stream = inputStream) {
+            for (int read; (read = stream.read(buffer)) >= 0; )
+                body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of graph calls of the given kind observed by the metrics of this workspace so far.
+     */
+    long getGraphCalls(final String call) {
+        final StringWriter writer = new StringWriter();
+        try {
+            metrics.write(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final Matcher matcher = Pattern.compile(
+                "graph_call_rows_count\\{call=\"" + call + "\",?} ([0-9.E]+)").matcher(writer.toString());
+        return matcher.find() ? (long) Double.parseDouble(matcher.group(1)) : 0;
+    }
+
+    private synchronized void close() {
+        if (server != null)
+            server.stop();
+        graph.close();
+        try (final Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package de.unibi.agbi.biodwh2.graphql.server;
+
+import de.unibi.agbi.biodwh2.core.model.graph.Node;
+import graphql.GraphQLException;
+import graphql.language.Document;
+import graphql.language.Field;
+import graphql.language.OperationDefinition;
+import graphql.parser.Parser;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+final class WhereFilterTest {
+    private static final String LABEL = "Drug";
+    private static final TestWorkspace workspace = TestWorkspace.get();
+    private static int lookups;
+
+    @Test
+    void equalityFiltersByValue() {
+        assertEquals(Collections.singletonList("drug3"), findNames("{name: {eq: \"drug3\"}}", key -> false));
+    }
+
+    @Test
+    void rangeOperatorsFilterStreamedResults() {
+        assertEquals(Arrays.asList("drug298", "drug299"), findNames("{mass: {gt: 14950}}", key -> false));
+        assertEquals(Arrays.asList("drug0", "drug1"), findNames("{mass: {lt: 200}}", key -> false));
+        assertEquals(Arrays.asList("drug2", "drug3", "drug4"), findNames("{mass: {between: [200, 300]}}",
+                                                                         key -> false));
+        assertEquals(Arrays.asList("drug2", "drug3"), findNames("{mass: {between: [200, 300]}, name: {lt: \"drug4\"}}",
+                                                                key -> false));
+    }
+
+    @Test
+    void startsWithFiltersStrings() {
+        assertEquals(TestWorkspace.DRUG_COUNT, findNames("{name: {startsWith: \"drug\"}}", key -> false).size());
+        assertTrue(findNames("{name: {startsWith: \"gene\"}}", key -> false).isEmpty());
+    }
+
+    @Test
+    void inOnUnindexedKeyScansOnce() {
+        assertEquals(Arrays.asList("drug1", "drug5"), findNames("{name: {in: [\"drug5\", \"drug1\", \"drug999\"]}}",
+                                                                key -> false));
+        assertEquals(1, lookups);
+    }
+
+    @Test
+    void inOnIndexedKeyLooksUpEachDistinctValue() {
+        assertEquals(Arrays.asList("drug1", "drug5"), findNames("{name: {in: [\"drug5\", \"drug1\", \"drug5\"]}}",
+                                                                "name"::equals));
+        assertEquals(2, lookups);
+    }
+
+    @Test
+    void inIsCombinedWithOtherOperators() {
+        assertEquals(Collections.singletonList("drug5"), findNames(
+                "{name: {in: [\"drug1\", \"drug5\"]}, mass: {gt: 200}}", "name"::equals));
+        assertEquals(Collections.singletonList("drug1"), findNames(
+                "{name: {in: [\"drug1\", \"drug5\"], eq: \"drug1\"}}", "name"::equals));
+        assertEquals(1, lookups);
+    }
+
+    @Test
+    void lookupCountFollowsIndexedKeys() {
+        final Set<String> noArguments = Collections.emptySet();
+        assertEquals(0, parse("{name: {eq: \"drug1\"}}").getLookupCount(noArguments, key -> false));
+        assertEquals(1, parse("{name: {eq: \"drug1\"}}").getLookupCount(noArguments, "name"::equals));
+        assertEquals(1, parse("{mass: {gt: 200}}").getLookupCount(Collections.singleton("name"), "name"::equals));
+        assertEquals(0, parse("{name: {startsWith: \"drug\"}}").getLookupCount(noArguments, "name"::equals));
+        assertEquals(2, parse("{name: {in: [\"drug1\", \"drug2\", \"drug1\"]}}").getLookupCount(noArguments,
+                                                                                                  "name"::equals));
+    }
+
+    @Test
+    void conflictingArgumentMatchesNothing() {
+        final Map<String, Comparable<?>> arguments = new HashMap<>();
+        arguments.put("name", "drug2");
+        assertTrue(find("{name: {eq: \"drug3\"}}", arguments, key -> false).isEmpty());
+        assertEquals(1, find("{name: {eq: \"drug2\"}}", arguments, key -> false).size());
+    }
+
+    @Test
+    void invalidOperatorsAreRejected() {
+        assertThrows(GraphQLException.class, () -> parse("{_id: {eq: \"abc\"}}"));
+        assertThrows(GraphQLException.class, () -> parse("{mass: {between: [1]}}"));
+        assertThrows(GraphQLException.class, () -> parse("{mass: {like: 1}}"));
+    }
+
+    @Test
+    void missingFilterIsNone() {
+        final Field field = parseField("{ Drug { _id } }");
+        assertSame(WhereFilter.NONE, WhereFilter.parse(field.getArguments(), Collections.emptyMap()));
+    }
+
+    @Test
+    void variablesAreResolved() {
+        final Field field = parseField("query($names: [String!]) { Drug(_where: {name: {in: $names}}) { _id } }");
+        final WhereFilter where = WhereFilter.parse(field.getArguments(), Collections.singletonMap("names",
+                                                                                                  Arrays.asList(
+                                                                                                          "drug7")));
+        assertEquals(1, collect(where, Collections.emptyMap(), key -> false).size());
+    }
+
+    private static List<String> findNames(final String where, final Predicate<String> isIndexed) {
+        final List<String> names = new ArrayList<>();
+        for (final Node node : find(where, Collections.emptyMap(), isIndexed))
+            names.add(node.getProperty("name"));
+        // Lookup results are not ordered across values
+        names.sort(Comparator.naturalOrder());
+        return names;
+    }
+
+    private static List<Node> find(final String where, final Map<String, Comparable<?>> arguments,
+                                   final Predicate<String> isIndexed) {
+        return collect(parse(where), arguments, isIndexed);
+    }
+
+    private static List<Node> collect(final WhereFilter where, final Map<String, Comparable<?>> arguments,
+                                      final Predicate<String> isIndexed) {
+        lookups = 0;
+        final List<Node> nodes = new ArrayList<>();
+        try (final WhereFilter.FilteredIterator<Node> iterator = where.apply(arguments, properties -> {
+            lookups++;
+            return workspace.accessor.findNodes(LABEL, properties);
+        }, isIndexed)) {
+            while (iterator.hasNext())
+                nodes.add(iterator.next());
+        }
+        return nodes;
+    }
+
+    private static WhereFilter parse(final String where) {
+        return WhereFilter.parse(parseField("{ Drug(_where: " + where + ") { _id } }").getArguments(),
+                                 Collections.emptyMap());
+    }
+
+    private static Field parseField(final String query) {
+        final Document document = Parser.parse(query);
+        final OperationDefinition operation = (OperationDefinition) document.getDefinitions().get(0);
+        return (Field) operation.getSelectionSet().getSelections().get(0);
+    }
+}